@@ -0,0 +1,227 @@
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.function.IntFunction;
+
+/**
+ * Throughput and allocation benchmarks for the lexer, the parser, tree
+ * printing and running the sample programs and generated ones
+ *
+ * Each benchmark runs at every size it is given: warm-up rounds first, so
+ * the JIT has settled, then measured rounds of a fixed time each. Every
+ * round reports operations per second and bytes allocated per operation
+ * by the benchmark's thread, and the summary gives the mean and spread of
+ * the measured rounds. Results go to a sink the JIT can't see through, so
+ * the work isn't optimised away.
+ *
+ *     javac -encoding UTF-8 -d out src/*.java bench/*.java
+ *     java -cp out Bench [-w ROUNDS] [-i ROUNDS] [-t MS] [FILTER]
+ *
+ * FILTER runs only the benchmarks whose name contains it, e.g. `parse`
+ */
+public class Bench {
+    // The sample programs that run to the end on their own, without keys or a cable
+    static final String[] WORKLOADS = { "variables", "if", "goto", "isz", "lists", "strings", "decimals", "table" };
+
+    static volatile int sink;
+
+    private static int warmups = 3;
+    private static int rounds = 5;
+    private static long roundMillis = 1000;
+
+    /**
+     * One benchmark at one size. `setUp` builds the input once, outside the
+     * measured time, and returns the operation to measure
+     */
+    static class Case {
+        String name;
+        int[] sizes;
+        IntFunction<Op> setUp;
+
+        Case(String name, int[] sizes, IntFunction<Op> setUp) {
+            this.name = name;
+            this.sizes = sizes;
+            this.setUp = setUp;
+        }
+    }
+
+    interface Op {
+        int run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String filter = "";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-w") && i + 1 < args.length) warmups = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-i") && i + 1 < args.length) rounds = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-t") && i + 1 < args.length) roundMillis = Long.parseLong(args[++i]);
+            else filter = args[i];
+        }
+
+        List<Case> cases = cases();
+        System.out.printf("%-28s %8s %14s %12s %16s%n", "BENCHMARK", "SIZE", "OPS/S", "+-", "BYTES/OP");
+        for (Case c : cases) {
+            if (!c.name.contains(filter)) continue;
+            for (int size : c.sizes) measure(c.name, size, c.setUp.apply(size));
+        }
+    }
+
+    static List<Case> cases() throws Exception {
+        String small = read("tests/if.cb");
+        String samples = "";
+        for (String workload : WORKLOADS) samples += read("tests/" + workload + ".cb") + "\n";
+        String corpus = samples;
+
+        List<Case> cases = new ArrayList<>();
+        cases.add(new Case("lex.small", new int[] { 1 }, size -> () -> new Lexer("if.cb", small).getTokens().size()));
+        cases.add(new Case("lex.large", new int[] { 1_000, 10_000, 100_000 }, size -> {
+            String source = lines(corpus, size);
+            return () -> new Lexer("large.cb", source).getTokens().size();
+        }));
+        cases.add(new Case("parse.expressions", new int[] { 100, 1_000, 10_000 }, size -> parse(expressions(size))));
+        cases.add(new Case("parse.blocks", new int[] { 100, 1_000, 10_000 }, size -> parse(blocks(size))));
+        cases.add(new Case("debugString", new int[] { 100, 1_000 }, size -> {
+            ASTNode root = new Parser(new Lexer("blocks.cb", blocks(size)).getTokens()).getRoot();
+            return () -> root.debugString("", "  ").length();
+        }));
+        cases.add(new Case("lex.generated", new int[] { 10_000, 100_000, 1_000_000 }, size -> {
+            String source = generated(size);
+            return () -> new Lexer("generated.cb", source).getTokens().size();
+        }));
+        cases.add(new Case("parse.generated", new int[] { 10_000, 100_000 }, size -> parse(generated(size))));
+        cases.add(new Case("run.generated", new int[] { 1_000, 10_000 }, size -> runGenerated(size, false)));
+        cases.add(new Case("run.traced", new int[] { 1_000, 10_000 }, size -> runGenerated(size, true)));
+        for (String workload : WORKLOADS) {
+            cases.add(new Case("run." + workload, new int[] { 1, 100 }, size -> run(workload, size)));
+        }
+        return cases;
+    }
+
+    /**
+     * Parses a fresh copy of the tokens each time, as the parser consumes them
+     */
+    static Op parse(String source) {
+        Queue<Token> tokens = new Lexer("parse.cb", source).getTokens();
+        return () -> new Parser(new LinkedList<>(tokens)).getStatementCount();
+    }
+
+    /**
+     * Runs a generated program, optionally tracing it into a ring that is
+     * allocated once up front, as it would be in production
+     */
+    static Op runGenerated(int lines, boolean traced) {
+        Engine engine = new Engine();
+        Engine.CompileResult compiled = engine.compile("generated.cb", generated(lines));
+        Tracer tracer = new Tracer(65536);
+        return () -> {
+            Environment env = new Environment();
+            if (traced) env.setTracer(tracer);
+            engine.run(compiled, env);
+            return (int) env.getVar('A');
+        };
+    }
+
+    /**
+     * Runs a sample program `times` times over, each in a fresh environment,
+     * compiled once beforehand
+     */
+    static Op run(String workload, int times) {
+        Engine engine = new Engine();
+        Engine.CompileResult compiled;
+        try {
+            compiled = engine.compile(new java.io.File("tests/" + workload + ".cb"));
+        } catch (RuntimeException e) { throw new IllegalStateException(e); }
+        if (!compiled.isOk()) throw new IllegalStateException(compiled.getDiagnostics().get(0).toString());
+        return () -> {
+            int out = 0;
+            for (int i = 0; i < times; i++) {
+                Environment env = new Environment();
+                engine.run(compiled, env);
+                out += (int) env.getVar('A');
+            }
+            return out;
+        };
+    }
+
+    static void measure(String name, int size, Op op) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        double[] opsPerSecond = new double[rounds];
+        long bytes = 0, ops = 0;
+        for (int round = -warmups; round < rounds; round++) {
+            long count = 0, start = System.nanoTime(), startBytes = threads.getThreadAllocatedBytes(thread);
+            long end = start + roundMillis * 1_000_000;
+            int result = 0;
+            long now;
+            do {
+                result += op.run();
+                count ++;
+            } while ((now = System.nanoTime()) < end);
+            sink += result;
+            if (round < 0) continue;
+            opsPerSecond[round] = count * 1e9 / (now - start);
+            bytes += threads.getThreadAllocatedBytes(thread) - startBytes;
+            ops += count;
+        }
+        double mean = 0, spread = 0;
+        for (double value : opsPerSecond) mean += value / rounds;
+        for (double value : opsPerSecond) spread += (value - mean) * (value - mean) / rounds;
+        System.out.printf("%-28s %8d %14.1f %12.1f %16d%n", name, size, mean, Math.sqrt(spread), bytes / Math.max(ops, 1));
+    }
+
+    static String read(String path) throws Exception {
+        return new String(Files.readAllBytes(Path.of(path)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A program of about `lines` lines, the same every time
+     */
+    static String generated(int lines) {
+        Generator generator = new Generator(42);
+        generator.setLines(lines);
+        return generator.generate();
+    }
+
+    /**
+     * The first `count` lines of the corpus repeated over and over
+     */
+    static String lines(String corpus, int count) {
+        String[] lines = corpus.split("\n");
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < count; i++) out.append(lines[i % lines.length]).append('\n');
+        return out.toString();
+    }
+
+    /**
+     * Statements that are each one long expression
+     */
+    static String expressions(int count) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            out.append("(A + B * ").append(i).append(" - C / 2) * (D - E + F * G) / (H + 1) ≥ ")
+               .append(i % 10).append(" And I < J Or K = L -> ").append((char) ('A' + i % 26)).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Short statements nested a few loops and conditions deep
+     */
+    static String blocks(int count) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            out.append("For 1 -> I To 3\n")
+               .append("While A < 10\n")
+               .append("If A > 5\nThen A + 2 -> A\nElse A + 1 -> A\nIfEnd\n")
+               .append("WhileEnd\n")
+               .append("Do\nB + 1 -> B\nLpWhile B < I\n")
+               .append("Next\n");
+        }
+        return out.toString();
+    }
+}
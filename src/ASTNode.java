@@ -4,10 +4,70 @@ import java.util.List;
 //                      BASE INTERFACES                     //
 //////////////////////////////////////////////////////////////
 interface ASTNode {
+    // What evaluating an expression gives, see kind()
+    static final int NUMBER = 0;
+    static final int LIST = 1;
+    static final int MATRIX = 2;
+    static final int STRING = 3;
 
     public String toString();
 
     public String debugString(String prefix, String pad);
+
+    /**
+     * Runs the node against the given environment. Statements return 0,
+     * expressions return their value
+     */
+    public double evaluate(Environment env);
+
+    /**
+     * Whether the node evaluates to a NUMBER (with evaluate()), a LIST (with
+     * evaluateList()), a MATRIX (with evaluateMatrix()) or a STRING (with
+     * evaluateString())
+     */
+    public default int kind() { return NUMBER; }
+
+    public default double[] evaluateList(Environment env) {
+        throw new CasioBasicError("Argument ERROR: expects a list");
+    }
+
+    public default Matrix evaluateMatrix(Environment env) {
+        throw new CasioBasicError("Argument ERROR: expects a matrix");
+    }
+
+    public default Rope evaluateString(Environment env) {
+        throw new CasioBasicError("Argument ERROR: expects a string");
+    }
+
+    /**
+     * Emits the node's postfix code into the kernel, or returns false if it
+     * can't be compiled, see Kernel
+     */
+    public default boolean compile(Kernel kernel) { return false; }
+
+    /**
+     * `l op r` where at least one side is a list and the other may be a number
+     */
+    static double[] listOp(int op, ASTNode l, ASTNode r, Environment env) {
+        if (l.kind() == LIST && r.kind() == LIST) return VectorOps.apply(op, l.evaluateList(env), r.evaluateList(env));
+        if (l.kind() == LIST) return VectorOps.apply(op, l.evaluateList(env), r.evaluate(env), false);
+        return VectorOps.apply(op, r.evaluateList(env), l.evaluate(env), true);
+    }
+
+    /**
+     * `l op r` where at least one side is a matrix and the other may be a
+     * number. Two matrices can be added, subtracted and multiplied
+     */
+    static Matrix matrixOp(int op, ASTNode l, ASTNode r, Environment env) {
+        if (l.kind() == MATRIX && r.kind() == MATRIX) {
+            if (op == VectorOps.MULTIPLY) return Matrix.multiply(l.evaluateMatrix(env), r.evaluateMatrix(env));
+            if (op == VectorOps.DIVIDE) throw new CasioBasicError("Argument ERROR: can't divide by a matrix");
+            return Matrix.apply(op, l.evaluateMatrix(env), r.evaluateMatrix(env));
+        }
+        if (l.kind() == MATRIX) return Matrix.apply(op, l.evaluateMatrix(env), r.evaluate(env), false);
+        if (op == VectorOps.DIVIDE) throw new CasioBasicError("Argument ERROR: can't divide by a matrix");
+        return Matrix.apply(op, r.evaluateMatrix(env), l.evaluate(env), true);
+    }
 }
 
 //////////////////////////////////////////////////////////////
@@ -18,9 +78,16 @@ interface ASTNode {
  * PROGRAM ::= STATEMENT*
  */
 class ProgramNode implements ASTNode {
-    private List<ASTNode> statements;
+    private ASTNode[] statements;
+    private int[] labels;
+    // Statements anywhere in the program, numbered from 0 by the parser
+    private int statementCount;
 
-    ProgramNode(List<ASTNode> statements) { this.statements = statements; }
+    ProgramNode(List<ASTNode> statements, int statementCount) {
+        this.statements = statements.toArray(new ASTNode[0]);
+        this.labels = BodyNode.labelTable(this.statements);
+        this.statementCount = statementCount;
+    }
 
     public String toString() { 
         String out = "";
@@ -37,6 +104,24 @@ class ProgramNode implements ASTNode {
         }
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        Profiler profiler = env.getProfiler();
+        Tracer tracer = env.getTracer();
+        if (profiler == null && tracer == null) {
+            BodyNode.run(statements, labels, env);
+            return 0;
+        }
+        int outer = profiler == null ? 0 : profiler.enterProgram(this, statementCount);
+        int traced = tracer == null ? 0 : tracer.enterProgram(this, statementCount);
+        try {
+            BodyNode.run(statements, labels, env);
+        } finally {
+            if (profiler != null) profiler.exitProgram(outer);
+            if (tracer != null) tracer.exitProgram(traced);
+        }
+        return 0;
+    }
 }
 
 //////////////////////////////////////////////////////////////
@@ -54,8 +139,15 @@ class ProgramNode implements ASTNode {
  */
 class StatementNode implements ASTNode {
     private ASTNode node;
+    private TokenLocation loc;
+    // Unique within the program, see Profiler and Tracer
+    private int id;
+
+    StatementNode(ASTNode node, TokenLocation loc, int id) { this.node = node; this.loc = loc; this.id = id; }
 
-    StatementNode(ASTNode node) { this.node = node; }
+    public ASTNode getNode() { return node; }
+    public TokenLocation getLoc() { return loc; }
+    public int getId() { return id; }
 
     public String toString() {
         return node.toString();
@@ -66,6 +158,22 @@ class StatementNode implements ASTNode {
         out += node.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        Tracer tracer = env.getTracer();
+        if (tracer != null) tracer.statement(this);
+        Profiler profiler = env.getProfiler();
+        if (profiler != null) profiler.enter(this);
+        try {
+            return node.evaluate(env);
+        } catch (CasioBasicError e) {
+            // The innermost statement is the most precise location we have
+            if (e.getLoc() == null) e.setLoc(loc);
+            throw e;
+        } finally {
+            if (profiler != null) profiler.exit();
+        }
+    }
 }
 
 //////////////////////////////////////////////////////////////
@@ -79,7 +187,21 @@ class WhileNode implements ASTNode {
     private ASTNode expr;
     private ASTNode body;
 
-    WhileNode(ASTNode expr, ASTNode body) { this.expr = expr; this.body = body; }
+    private TokenLocation loc;
+
+    // Where a suspended loop was: at its back edge, or somewhere in its body
+    static final int AT_EDGE = 0;
+    static final int IN_BODY = 1;
+
+    WhileNode(ASTNode expr, ASTNode body, TokenLocation loc) { this.expr = expr; this.body = body; this.loc = loc; }
+
+    /**
+     * Called when a loop's body stops early. A `Break` ends here, anything
+     * else keeps unwinding
+     */
+    static void endLoop(Environment env) {
+        if (env.getControl() == Environment.BREAK) env.resume();
+    }
 
     public String toString() {
         String out = "While " + expr + "\n" + body + "\n";
@@ -92,6 +214,22 @@ class WhileNode implements ASTNode {
         out += body.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        // Resuming in the body goes straight back in, without testing the condition
+        boolean inBody = env.resumePoint() == IN_BODY;
+        Profiler profiler = env.getProfiler();
+        while (inBody || expr.evaluate(env) != 0) {
+            inBody = false;
+            body.evaluate(env);
+            if (env.getControl() == Environment.SUSPEND) { env.suspend(IN_BODY); break; }
+            if (env.getControl() != Environment.RUNNING) { endLoop(env); break; }
+            env.backEdge(loc);
+            if (profiler != null) profiler.pass();
+            if (env.getControl() == Environment.SUSPEND) { env.suspend(AT_EDGE); break; }
+        }
+        return 0;
+    }
 }
 
 /**
@@ -101,7 +239,9 @@ class DoWhileNode implements ASTNode {
     private ASTNode expr;
     private ASTNode body;
 
-    DoWhileNode(ASTNode expr, ASTNode body) { this.expr = expr; this.body = body; }
+    private TokenLocation loc;
+
+    DoWhileNode(ASTNode expr, ASTNode body, TokenLocation loc) { this.expr = expr; this.body = body; this.loc = loc; }
 
     public String toString() { return "Do " + body + "\nLpWhile" + expr; }
 
@@ -111,6 +251,21 @@ class DoWhileNode implements ASTNode {
         out += expr.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        // Resuming at the back edge tests the condition before going round again
+        if (env.resumePoint() == WhileNode.AT_EDGE && expr.evaluate(env) == 0) return 0;
+        Profiler profiler = env.getProfiler();
+        do {
+            body.evaluate(env);
+            if (env.getControl() == Environment.SUSPEND) { env.suspend(WhileNode.IN_BODY); break; }
+            if (env.getControl() != Environment.RUNNING) { WhileNode.endLoop(env); break; }
+            env.backEdge(loc);
+            if (profiler != null) profiler.pass();
+            if (env.getControl() == Environment.SUSPEND) { env.suspend(WhileNode.AT_EDGE); break; }
+        } while (expr.evaluate(env) != 0);
+        return 0;
+    }
 }
 
 //////////////////////////////////////////////////////////////
@@ -125,12 +280,16 @@ class ForNode implements ASTNode {
     private ASTNode toExpr;
     private ASTNode stepExpr;
     private ASTNode body;
+    private char varName;
+    private TokenLocation loc;
 
-    ForNode(ASTNode varAssign, ASTNode toExpr, ASTNode stepExpr, ASTNode body) { 
+    ForNode(ASTNode varAssign, ASTNode toExpr, ASTNode stepExpr, ASTNode body, TokenLocation loc) { 
         this.varAssign = varAssign; 
+        this.varName = ((VarAssignNode) varAssign).getVarName();
         this.toExpr = toExpr; 
         this.stepExpr = stepExpr;
         this.body = body; 
+        this.loc = loc;
     }
 
     public String toString() {
@@ -148,6 +307,34 @@ class ForNode implements ASTNode {
         out += body.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        int at = env.resumePoint();
+        double to, step;
+        if (at == Environment.FRESH) {
+            varAssign.evaluate(env);
+            to = toExpr.evaluate(env);
+            step = stepExpr == null ? 1 : stepExpr.evaluate(env);
+            if (step == 0) throw new CasioBasicError("Step of a `For` loop must not be 0");
+        } else {
+            // The bounds were evaluated once when the loop started, so they come from the snapshot
+            step = env.resumeValue();
+            to = env.resumeValue();
+        }
+        boolean inBody = at == WhileNode.IN_BODY;
+        Profiler profiler = env.getProfiler();
+        while (inBody || (step > 0 ? env.getVar(varName) <= to : env.getVar(varName) >= to)) {
+            inBody = false;
+            body.evaluate(env);
+            if (env.getControl() == Environment.SUSPEND) { env.suspend(WhileNode.IN_BODY, to, step); break; }
+            if (env.getControl() != Environment.RUNNING) { WhileNode.endLoop(env); break; }
+            env.setVar(varName, env.getVar(varName) + step);
+            env.backEdge(loc);
+            if (profiler != null) profiler.pass();
+            if (env.getControl() == Environment.SUSPEND) { env.suspend(WhileNode.AT_EDGE, to, step); break; }
+        }
+        return 0;
+    }
 }
 
 /**
@@ -177,6 +364,223 @@ class IfNode implements ASTNode {
         if (elseBody != null) out += elseBody.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        int at = env.resumePoint();
+        boolean then = at == Environment.FRESH ? condition.evaluate(env) != 0 : at == 1;
+        Profiler profiler = env.getProfiler();
+        if (profiler != null && then && at == Environment.FRESH) profiler.pass();
+        if (then) ifBody.evaluate(env);
+        else if (elseBody != null) elseBody.evaluate(env);
+        if (env.getControl() == Environment.SUSPEND) env.suspend(then ? 1 : 0);
+        return 0;
+    }
+}
+
+//////////////////////////////////////////////////////////////
+//                           JUMPS                          //
+//////////////////////////////////////////////////////////////
+
+/**
+ * LBL ::= `Lbl` LABEL
+ * LABEL ::= [0-9A-Z]
+ */
+class LblNode implements ASTNode {
+    static final int COUNT = 36;
+
+    private char label;
+
+    LblNode(char label) { this.label = label; }
+
+    /**
+     * Labels 0-9 are 0-9 and A-Z are 10-35
+     */
+    static int index(char label) { return label <= '9' ? label - '0' : label - 'A' + 10; }
+
+    public int getLabel() { return index(label); }
+
+    public String toString() {
+        return "Lbl " + label;
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + "LBL " + label + "\n";
+    }
+
+    public double evaluate(Environment env) { return 0; }
+}
+
+/**
+ * GOTO ::= `Goto` LABEL
+ */
+class GotoNode implements ASTNode {
+    private char label;
+
+    GotoNode(char label) { this.label = label; }
+
+    public int getLabel() { return LblNode.index(label); }
+
+    public String toString() {
+        return "Goto " + label;
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + "GOTO " + label + "\n";
+    }
+
+    public double evaluate(Environment env) {
+        env.jump(getLabel());
+        return 0;
+    }
+}
+
+/**
+ * JUMP ::= EXPR `=>` STATEMENT
+ */
+class JumpNode implements ASTNode {
+    private ASTNode condition;
+    private ASTNode statement;
+    // `cond => Goto label` jumps straight away instead of running the Goto statement, -1 otherwise
+    private int gotoLabel = -1;
+
+    JumpNode(ASTNode condition, ASTNode statement) {
+        this.condition = condition;
+        this.statement = statement;
+        ASTNode node = ((StatementNode) statement).getNode();
+        if (node instanceof GotoNode) gotoLabel = ((GotoNode) node).getLabel();
+    }
+
+    public String toString() {
+        return condition + " => " + statement;
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "JUMP [\n";
+        out += condition.debugString(prefix + pad, pad);
+        out += statement.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) {
+        // A run suspended in the statement had already passed the condition
+        if (env.resumePoint() == Environment.FRESH && condition.evaluate(env) == 0) return 0;
+        if (gotoLabel >= 0) env.jump(gotoLabel);
+        else {
+            statement.evaluate(env);
+            if (env.getControl() == Environment.SUSPEND) env.suspend(0);
+        }
+        return 0;
+    }
+}
+
+/**
+ * ISZ ::= `Isz` VAR_NAME
+ *
+ * Adds 1 to the variable and skips the next statement if it became 0, all
+ * in one step
+ */
+class IszNode implements ASTNode {
+    private char varName;
+
+    IszNode(char varName) { this.varName = varName; }
+
+    public String toString() {
+        return "Isz " + varName;
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + "ISZ " + varName + "\n";
+    }
+
+    public double evaluate(Environment env) {
+        // The variable as the calculator holds it, to 15 digits, so a value
+        // a rounding error off the next integer still reaches 0
+        double value = Decimal.round(Decimal.round(env.getVar(varName)) + 1);
+        env.setVar(varName, value);
+        if (value == 0) env.skip();
+        return value;
+    }
+}
+
+/**
+ * DSZ ::= `Dsz` VAR_NAME
+ *
+ * Subtracts 1 from the variable and skips the next statement if it became
+ * 0, all in one step
+ */
+class DszNode implements ASTNode {
+    private char varName;
+
+    DszNode(char varName) { this.varName = varName; }
+
+    public String toString() {
+        return "Dsz " + varName;
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + "DSZ " + varName + "\n";
+    }
+
+    public double evaluate(Environment env) {
+        // The variable as the calculator holds it, to 15 digits, so a value
+        // a rounding error off the next integer still reaches 0
+        double value = Decimal.round(Decimal.round(env.getVar(varName)) - 1);
+        env.setVar(varName, value);
+        if (value == 0) env.skip();
+        return value;
+    }
+}
+
+//////////////////////////////////////////////////////////////
+//                      PROGRAM CONTROL                     //
+//////////////////////////////////////////////////////////////
+
+/**
+ * PROG ::= `Prog` TEXT
+ */
+class ProgNode implements ASTNode {
+    private String name;
+
+    ProgNode(String name) { this.name = name; }
+
+    public String toString() {
+        return "Prog \"" + name + "\"";
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + "PROG \"" + name + "\"\n";
+    }
+
+    public double evaluate(Environment env) {
+        // When resuming, the subprogram finds its own place
+        env.resumePoint();
+        env.call(name);
+        if (env.getControl() == Environment.SUSPEND) env.suspend(0);
+        return 0;
+    }
+}
+
+/**
+ * EXIT ::= `Return` | `Break` | `Stop`
+ */
+class ExitNode implements ASTNode {
+    private int control;
+    private String name;
+
+    ExitNode(int control, String name) { this.control = control; this.name = name; }
+
+    public String toString() {
+        return name;
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + name.toUpperCase() + "\n";
+    }
+
+    public double evaluate(Environment env) {
+        env.exit(control);
+        return 0;
+    }
 }
 
 //////////////////////////////////////////////////////////////
@@ -187,9 +591,62 @@ class IfNode implements ASTNode {
  * BODY ::= STATEMENT* BODY_END
  */
 class BodyNode implements ASTNode {
-    private List<ASTNode> statements;
-
-    BodyNode(List<ASTNode> statements) { this.statements = statements; }
+    private ASTNode[] statements;
+    private int[] labels;
+
+    BodyNode(List<ASTNode> statements) {
+        this.statements = statements.toArray(new ASTNode[0]);
+        this.labels = labelTable(this.statements);
+    }
+
+    /**
+     * Maps each label (see LblNode.index()) to the index of the first `Lbl`
+     * statement for it in this list, or -1. Null if the list has no labels
+     */
+    static int[] labelTable(ASTNode[] statements) {
+        int[] labels = null;
+        for (int i = 0; i < statements.length; i++) {
+            ASTNode node = ((StatementNode) statements[i]).getNode();
+            if (!(node instanceof LblNode)) continue;
+            if (labels == null) { labels = new int[LblNode.COUNT]; java.util.Arrays.fill(labels, -1); }
+            int label = ((LblNode) node).getLabel();
+            if (labels[label] < 0) labels[label] = i;
+        }
+        return labels;
+    }
+
+    /**
+     * Runs a list of statements. When a statement leaves the environment
+     * jumping, the jump is taken here if the label is in this list, and
+     * otherwise this list stops so an enclosing one can take it
+     */
+    static void run(ASTNode[] statements, int[] labels, Environment env) {
+        int i = Math.max(env.resumePoint(), 0);
+        while (i < statements.length) {
+            statements[i++].evaluate(env);
+            if (env.getControl() == Environment.RUNNING) continue;
+            if (env.getControl() == Environment.SUSPEND) {
+                env.suspend(i - 1);
+                return;
+            }
+            if (env.getControl() == Environment.SKIP) {
+                i ++;
+                env.resume();
+                continue;
+            }
+            if (env.getControl() != Environment.GOTO || labels == null || labels[env.getJumpLabel()] < 0) return;
+            int target = labels[env.getJumpLabel()];
+            env.resume();
+            // Jumping back is a loop too, so it has to respect the budget
+            if (target < i) env.backEdge(((StatementNode) statements[i - 1]).getLoc());
+            // Suspended on the jump, so the run resumes at the label
+            if (env.getControl() == Environment.SUSPEND) {
+                env.suspend(target);
+                return;
+            }
+            i = target;
+        }
+    }
 
     public String toString() { 
         String out = "";
@@ -206,6 +663,11 @@ class BodyNode implements ASTNode {
         }
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        run(statements, labels, env);
+        return 0;
+    }
 }
 
 
@@ -230,6 +692,16 @@ class ExpressionNode implements ASTNode {
         out += node.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) { return node.evaluate(env); }
+
+    public int kind() { return node.kind(); }
+    public double[] evaluateList(Environment env) { return node.evaluateList(env); }
+    public Matrix evaluateMatrix(Environment env) { return node.evaluateMatrix(env); }
+
+    public Rope evaluateString(Environment env) { return node.evaluateString(env); }
+
+    public boolean compile(Kernel kernel) { return node.compile(kernel); }
 }
 
 //////////////////////////////////////////////////////////////
@@ -256,6 +728,16 @@ class LogicOpNode implements ASTNode {
         out += node.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) { return node.evaluate(env); }
+
+    public int kind() { return node.kind(); }
+    public double[] evaluateList(Environment env) { return node.evaluateList(env); }
+    public Matrix evaluateMatrix(Environment env) { return node.evaluateMatrix(env); }
+
+    public Rope evaluateString(Environment env) { return node.evaluateString(env); }
+
+    public boolean compile(Kernel kernel) { return node.compile(kernel); }
 }
 
 class AndNode implements ASTNode {
@@ -274,6 +756,12 @@ class AndNode implements ASTNode {
         out += r.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        return l.evaluate(env) != 0 && r.evaluate(env) != 0 ? 1 : 0;
+    }
+
+    public boolean compile(Kernel kernel) { return kind() == NUMBER && l.kind() == NUMBER && l.compile(kernel) && r.compile(kernel) && kernel.emit(Kernel.AND); }
 }
 
 class OrNode implements ASTNode {
@@ -292,6 +780,12 @@ class OrNode implements ASTNode {
         out += r.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        return l.evaluate(env) != 0 || r.evaluate(env) != 0 ? 1 : 0;
+    }
+
+    public boolean compile(Kernel kernel) { return kind() == NUMBER && l.kind() == NUMBER && l.compile(kernel) && r.compile(kernel) && kernel.emit(Kernel.OR); }
 }
 
 class NotNode implements ASTNode {
@@ -308,6 +802,10 @@ class NotNode implements ASTNode {
         out += node.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) { return node.evaluate(env) == 0 ? 1 : 0; }
+
+    public boolean compile(Kernel kernel) { return node.compile(kernel) && kernel.emit(Kernel.NOT); }
 }
 
 //////////////////////////////////////////////////////////////
@@ -337,6 +835,16 @@ class RelativeOpNode implements ASTNode {
         out += node.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) { return node.evaluate(env); }
+
+    public int kind() { return node.kind(); }
+    public double[] evaluateList(Environment env) { return node.evaluateList(env); }
+    public Matrix evaluateMatrix(Environment env) { return node.evaluateMatrix(env); }
+
+    public Rope evaluateString(Environment env) { return node.evaluateString(env); }
+
+    public boolean compile(Kernel kernel) { return node.compile(kernel); }
 }
 
 class LessThanNode implements ASTNode {
@@ -355,6 +863,12 @@ class LessThanNode implements ASTNode {
         out += r.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        return l.evaluate(env) < r.evaluate(env) ? 1 : 0;
+    }
+
+    public boolean compile(Kernel kernel) { return kind() == NUMBER && l.kind() == NUMBER && l.compile(kernel) && r.compile(kernel) && kernel.emit(Kernel.LESS); }
 }
 
 class GreaterThanNode implements ASTNode {
@@ -373,6 +887,12 @@ class GreaterThanNode implements ASTNode {
         out += r.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        return l.evaluate(env) > r.evaluate(env) ? 1 : 0;
+    }
+
+    public boolean compile(Kernel kernel) { return kind() == NUMBER && l.kind() == NUMBER && l.compile(kernel) && r.compile(kernel) && kernel.emit(Kernel.GREATER); }
 }
 
 class LessThanEqNode implements ASTNode {
@@ -391,6 +911,12 @@ class LessThanEqNode implements ASTNode {
         out += r.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        return l.evaluate(env) <= r.evaluate(env) ? 1 : 0;
+    }
+
+    public boolean compile(Kernel kernel) { return kind() == NUMBER && l.kind() == NUMBER && l.compile(kernel) && r.compile(kernel) && kernel.emit(Kernel.LESS_EQ); }
 }
 
 class GreaterThanEqNode implements ASTNode {
@@ -409,6 +935,12 @@ class GreaterThanEqNode implements ASTNode {
         out += r.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        return l.evaluate(env) >= r.evaluate(env) ? 1 : 0;
+    }
+
+    public boolean compile(Kernel kernel) { return kind() == NUMBER && l.kind() == NUMBER && l.compile(kernel) && r.compile(kernel) && kernel.emit(Kernel.GREATER_EQ); }
 }
 
 class EqualToNode implements ASTNode {
@@ -427,6 +959,13 @@ class EqualToNode implements ASTNode {
         out += r.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        if (l.kind() == STRING) return Rope.compare(l.evaluateString(env), r.evaluateString(env)) == 0 ? 1 : 0;
+        return l.evaluate(env) == r.evaluate(env) ? 1 : 0;
+    }
+
+    public boolean compile(Kernel kernel) { return kind() == NUMBER && l.kind() == NUMBER && l.compile(kernel) && r.compile(kernel) && kernel.emit(Kernel.EQUAL); }
 }
 
 class NotEqualToNode implements ASTNode {
@@ -445,6 +984,13 @@ class NotEqualToNode implements ASTNode {
         out += r.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        if (l.kind() == STRING) return Rope.compare(l.evaluateString(env), r.evaluateString(env)) != 0 ? 1 : 0;
+        return l.evaluate(env) != r.evaluate(env) ? 1 : 0;
+    }
+
+    public boolean compile(Kernel kernel) { return kind() == NUMBER && l.kind() == NUMBER && l.compile(kernel) && r.compile(kernel) && kernel.emit(Kernel.NOT_EQUAL); }
 }
 
 //////////////////////////////////////////////////////////////
@@ -470,6 +1016,16 @@ class SumNode implements ASTNode {
         out += node.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) { return node.evaluate(env); }
+
+    public int kind() { return node.kind(); }
+    public double[] evaluateList(Environment env) { return node.evaluateList(env); }
+    public Matrix evaluateMatrix(Environment env) { return node.evaluateMatrix(env); }
+
+    public Rope evaluateString(Environment env) { return node.evaluateString(env); }
+
+    public boolean compile(Kernel kernel) { return node.compile(kernel); }
 }
 
 class PlusOpNode implements ASTNode {
@@ -488,6 +1044,18 @@ class PlusOpNode implements ASTNode {
         out += r.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        return Decimal.round(l.evaluate(env) + r.evaluate(env));
+    }
+
+    public int kind() { return Math.max(l.kind(), r.kind()); }
+    public double[] evaluateList(Environment env) { return ASTNode.listOp(VectorOps.ADD, l, r, env); }
+    public Matrix evaluateMatrix(Environment env) { return ASTNode.matrixOp(VectorOps.ADD, l, r, env); }
+
+    public Rope evaluateString(Environment env) { return l.evaluateString(env).concat(r.evaluateString(env)); }
+
+    public boolean compile(Kernel kernel) { return kind() == NUMBER && l.kind() == NUMBER && l.compile(kernel) && r.compile(kernel) && kernel.emit(Kernel.ADD); }
 }
 
 class MinusOpNode implements ASTNode {
@@ -506,6 +1074,16 @@ class MinusOpNode implements ASTNode {
         out += r.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        return Decimal.round(l.evaluate(env) - r.evaluate(env));
+    }
+
+    public int kind() { return Math.max(l.kind(), r.kind()); }
+    public double[] evaluateList(Environment env) { return ASTNode.listOp(VectorOps.SUBTRACT, l, r, env); }
+    public Matrix evaluateMatrix(Environment env) { return ASTNode.matrixOp(VectorOps.SUBTRACT, l, r, env); }
+
+    public boolean compile(Kernel kernel) { return kind() == NUMBER && l.kind() == NUMBER && l.compile(kernel) && r.compile(kernel) && kernel.emit(Kernel.SUBTRACT); }
 }
 
 //////////////////////////////////////////////////////////////
@@ -531,6 +1109,16 @@ class TermNode implements ASTNode {
         out += node.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) { return node.evaluate(env); }
+
+    public int kind() { return node.kind(); }
+    public double[] evaluateList(Environment env) { return node.evaluateList(env); }
+    public Matrix evaluateMatrix(Environment env) { return node.evaluateMatrix(env); }
+
+    public Rope evaluateString(Environment env) { return node.evaluateString(env); }
+
+    public boolean compile(Kernel kernel) { return node.compile(kernel); }
 }
 
 class MultiplyOpNode implements ASTNode {
@@ -549,6 +1137,16 @@ class MultiplyOpNode implements ASTNode {
         out += r.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        return Decimal.round(l.evaluate(env) * r.evaluate(env));
+    }
+
+    public int kind() { return Math.max(l.kind(), r.kind()); }
+    public double[] evaluateList(Environment env) { return ASTNode.listOp(VectorOps.MULTIPLY, l, r, env); }
+    public Matrix evaluateMatrix(Environment env) { return ASTNode.matrixOp(VectorOps.MULTIPLY, l, r, env); }
+
+    public boolean compile(Kernel kernel) { return kind() == NUMBER && l.kind() == NUMBER && l.compile(kernel) && r.compile(kernel) && kernel.emit(Kernel.MULTIPLY); }
 }
 
 class DivideOpNode implements ASTNode {
@@ -567,6 +1165,18 @@ class DivideOpNode implements ASTNode {
         out += r.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        double divisor = r.evaluate(env);
+        if (divisor == 0) throw new CasioBasicError("Math ERROR: division by zero");
+        return Decimal.round(l.evaluate(env) / divisor);
+    }
+
+    public int kind() { return Math.max(l.kind(), r.kind()); }
+    public double[] evaluateList(Environment env) { return ASTNode.listOp(VectorOps.DIVIDE, l, r, env); }
+    public Matrix evaluateMatrix(Environment env) { return ASTNode.matrixOp(VectorOps.DIVIDE, l, r, env); }
+
+    public boolean compile(Kernel kernel) { return kind() == NUMBER && l.kind() == NUMBER && l.compile(kernel) && r.compile(kernel) && kernel.emit(Kernel.DIVIDE); }
 }
 
 //////////////////////////////////////////////////////////////
@@ -595,6 +1205,16 @@ class FactorNode implements ASTNode {
         out += node.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) { return node.evaluate(env); }
+
+    public int kind() { return node.kind(); }
+    public double[] evaluateList(Environment env) { return node.evaluateList(env); }
+    public Matrix evaluateMatrix(Environment env) { return node.evaluateMatrix(env); }
+
+    public Rope evaluateString(Environment env) { return node.evaluateString(env); }
+
+    public boolean compile(Kernel kernel) { return node.compile(kernel); }
 }
 
 class PlusUnaryOpNode implements ASTNode {
@@ -611,6 +1231,14 @@ class PlusUnaryOpNode implements ASTNode {
         out += body.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) { return body.evaluate(env); }
+
+    public int kind() { return body.kind(); }
+    public double[] evaluateList(Environment env) { return body.evaluateList(env); }
+    public Matrix evaluateMatrix(Environment env) { return body.evaluateMatrix(env); }
+
+    public boolean compile(Kernel kernel) { return body.compile(kernel); }
 }
 
 class MinusUnaryOpNode implements ASTNode {
@@ -627,6 +1255,14 @@ class MinusUnaryOpNode implements ASTNode {
         out += body.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) { return -body.evaluate(env); }
+
+    public int kind() { return body.kind(); }
+    public double[] evaluateList(Environment env) { return VectorOps.negate(body.evaluateList(env)); }
+    public Matrix evaluateMatrix(Environment env) { return Matrix.apply(VectorOps.SUBTRACT, body.evaluateMatrix(env), 0, true); }
+
+    public boolean compile(Kernel kernel) { return body.compile(kernel) && kernel.emit(Kernel.NEGATE); }
 }
 
 //////////////////////////////////////////////////////////////
@@ -643,6 +1279,8 @@ class VarAssignNode implements ASTNode {
 
     VarAssignNode(ASTNode expr, char varName) { this.expr = expr; this.varName = varName; }
 
+    public char getVarName() { return varName; }
+
     public String toString() {
         return expr + " -> " + varName;
     }
@@ -653,6 +1291,14 @@ class VarAssignNode implements ASTNode {
         out += prefix + pad + varName + "\n";
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        double value = expr.evaluate(env);
+        env.setVar(varName, value);
+        Tracer tracer = env.getTracer();
+        if (tracer != null) tracer.assign(varName, value);
+        return value;
+    }
 }
 
 /**
@@ -672,6 +1318,10 @@ class VarEvaluateNode implements ASTNode {
         out += prefix + pad + varName + "\n";
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) { return env.getVar(varName); }
+
+    public boolean compile(Kernel kernel) { return kernel.emitVar(varName); }
 }
 
 //////////////////////////////////////////////////////////////
@@ -689,6 +1339,26 @@ class GetKeyNode implements ASTNode {
     public String debugString(String prefix, String pad) {
         return prefix + "GET_KEY\n";
     }
+
+    public double evaluate(Environment env) { return env.getKey(); }
+}
+
+/**
+ * CLR_TEXT ::= `ClrText`
+ */
+class ClrTextNode implements ASTNode {
+    public String toString() {
+        return "ClrText";
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + "CLR_TEXT\n";
+    }
+
+    public double evaluate(Environment env) {
+        env.clearText();
+        return 0;
+    }
 }
 
 /**
@@ -715,32 +1385,810 @@ class LocateNode implements ASTNode {
         out += value.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        int col = (int) x.evaluate(env);
+        int row = (int) y.evaluate(env);
+        if (value.kind() == STRING) env.locate(col, row, value.evaluateString(env));
+        else env.locate(col, row, Environment.format(value.evaluate(env)));
+        return 0;
+    }
 }
 
 //////////////////////////////////////////////////////////////
-//                          NUMBER                          //
+//                           GRAPHS                         //
 //////////////////////////////////////////////////////////////
 
 /**
- * NUMBER ::= [0-9]+
+ * GRAPH ::= `Graph` `Y` `=` EXPR
  */
-class NumberNode implements ASTNode {
-    private int value;
+class GraphNode implements ASTNode {
+    private ASTNode expr;
 
-    NumberNode(int value) { this.value = value; }
+    GraphNode(ASTNode expr) { this.expr = expr; }
 
     public String toString() {
-        return value + "";
+        return "Graph Y=" + expr;
     }
 
     public String debugString(String prefix, String pad) {
-        String out = prefix + "NUMBER [\n";
-        out += prefix + pad + toString() + "\n";
+        String out = prefix + "GRAPH [\n";
+        out += expr.debugString(prefix + pad, pad);
         return out + prefix + "]\n";
     }
+
+    public double evaluate(Environment env) {
+        env.getGraph().draw(expr, env);
+        return 0;
+    }
 }
 
-//////////////////////////////////////////////////////////////
+/**
+ * VIEW_WINDOW ::= `ViewWindow` EXPR `,` EXPR `,` EXPR `,` EXPR `,` EXPR `,` EXPR
+ *
+ * Xmin, Xmax, Xscl, Ymin, Ymax, Yscl. The scales are evaluated but not drawn
+ */
+class ViewWindowNode implements ASTNode {
+    private ASTNode[] args;
+
+    ViewWindowNode(ASTNode[] args) { this.args = args; }
+
+    public String toString() {
+        String out = "";
+        for (ASTNode arg : args) out += (out.isEmpty() ? "" : ", ") + arg;
+        return "ViewWindow " + out;
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "VIEW_WINDOW [\n";
+        for (ASTNode arg : args) out += arg.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) {
+        double[] values = new double[args.length];
+        for (int i = 0; i < args.length; i++) values[i] = args[i].evaluate(env);
+        env.getGraph().viewWindow(values[0], values[1], values[3], values[4]);
+        return 0;
+    }
+}
+
+class DrawGraphNode implements ASTNode {
+    public String toString() {
+        return "DrawGraph";
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + "DRAW_GRAPH\n";
+    }
+
+    public double evaluate(Environment env) {
+        env.getGraph().drawAll(env);
+        return 0;
+    }
+}
+
+class ClrGraphNode implements ASTNode {
+    public String toString() {
+        return "ClrGraph";
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + "CLR_GRAPH\n";
+    }
+
+    public double evaluate(Environment env) {
+        env.getGraph().clear();
+        return 0;
+    }
+}
+
+//////////////////////////////////////////////////////////////
+//                           TABLES                         //
+//////////////////////////////////////////////////////////////
+
+/**
+ * DISP_F_TBL ::= `DispF-Tbl` `Y` `=` EXPR `,` EXPR `,` EXPR `,` EXPR
+ *
+ * Y= over X from start to end by step. X goes into List 25 and Y into
+ * List 26, and the first rows are shown on the screen
+ */
+class FunctionTableNode implements ASTNode {
+    static final int MAX_ROWS = 1 << 24;
+
+    private ASTNode expr;
+    private ASTNode start;
+    private ASTNode end;
+    private ASTNode step;
+    // Null if the expression can't be compiled. Compiled with the tree, as
+    // the tree is shared by every thread that runs it
+    private final Kernel kernel;
+
+    FunctionTableNode(ASTNode expr, ASTNode start, ASTNode end, ASTNode step) {
+        this.expr = expr;
+        this.start = start;
+        this.end = end;
+        this.step = step;
+        this.kernel = Kernel.compile(expr);
+    }
+
+    public String toString() {
+        return "DispF-Tbl Y=" + expr + ", " + start + ", " + end + ", " + step;
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "DISP_F_TBL [\n";
+        out += expr.debugString(prefix + pad, pad);
+        out += start.debugString(prefix + pad, pad);
+        out += end.debugString(prefix + pad, pad);
+        out += step.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    /**
+     * How many rows start, start + step, ... reach up to end
+     */
+    static int rows(double start, double end, double step) {
+        if (step == 0 || (end - start) / step < 0) throw new CasioBasicError("Argument ERROR: the table step never reaches the end");
+        double rows = Math.floor(Decimal.round((end - start) / step)) + 1;
+        if (rows > MAX_ROWS) throw new CasioBasicError("Dimension ERROR: more than " + MAX_ROWS + " table rows");
+        return (int) rows;
+    }
+
+    public double evaluate(Environment env) {
+        double first = start.evaluate(env);
+        double inc = step.evaluate(env);
+        int rows = rows(first, end.evaluate(env), inc);
+        double[] xs = new double[rows];
+        for (int i = 0; i < rows; i++) xs[i] = Decimal.roundQuiet(first + i * inc);
+        double[] ys;
+        if (kernel != null) ys = kernel.column('X', first, inc, rows, env.getVars());
+        else {
+            // Anything the kernel can't run is interpreted a row at a time
+            ys = new double[rows];
+            Environment scratch = env.scratch();
+            for (int i = 0; i < rows; i++) {
+                scratch.setVar('X', xs[i]);
+                try {
+                    ys[i] = expr.evaluate(scratch);
+                } catch (CasioBasicError e) {
+                    if (!e.getMessage().startsWith("Math ERROR")) throw e;
+                    ys[i] = Double.NaN;
+                }
+            }
+        }
+        env.setList(25, xs);
+        env.setList(26, ys);
+        show(env, xs, ys);
+        return 0;
+    }
+
+    /**
+     * Prints the first rows, with ERROR where the expression is undefined
+     */
+    static void show(Environment env, double[] left, double[] right) {
+        env.clearText();
+        for (int i = 0; i < Math.min(left.length, Display.HEIGHT); i++) {
+            String l = Environment.format(left[i]);
+            String r = right[i] == right[i] ? Environment.format(right[i]) : "ERROR";
+            env.print(l + " ".repeat(Math.max(1, Display.WIDTH / 2 - l.length())) + r);
+        }
+    }
+}
+
+/**
+ * DISP_R_TBL ::= `DispR-Tbl` `A` `=` EXPR `,` EXPR `,` EXPR `,` EXPR
+ *
+ * The recurrence A=expr of A and N, from the first term at N = start until
+ * N = end. N goes into List 25 and A into List 26
+ */
+class RecurrenceTableNode implements ASTNode {
+    private ASTNode expr;
+    private ASTNode first;
+    private ASTNode start;
+    private ASTNode end;
+    // Null if the expression can't be compiled, see FunctionTableNode
+    private final Kernel kernel;
+
+    RecurrenceTableNode(ASTNode expr, ASTNode first, ASTNode start, ASTNode end) {
+        this.expr = expr;
+        this.first = first;
+        this.start = start;
+        this.end = end;
+        this.kernel = Kernel.compile(expr);
+    }
+
+    public String toString() {
+        return "DispR-Tbl A=" + expr + ", " + first + ", " + start + ", " + end;
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "DISP_R_TBL [\n";
+        out += expr.debugString(prefix + pad, pad);
+        out += first.debugString(prefix + pad, pad);
+        out += start.debugString(prefix + pad, pad);
+        out += end.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) {
+        double a = first.evaluate(env);
+        double n0 = start.evaluate(env);
+        int rows = FunctionTableNode.rows(n0, end.evaluate(env), 1);
+        double[] ns = new double[rows];
+        double[] as = new double[rows];
+        Environment scratch = env.scratch();
+        double[] vars = kernel != null ? env.getVars() : null;
+        double[] stack = kernel != null ? kernel.newStack() : null;
+        for (int i = 0; i < rows; i++) {
+            ns[i] = n0 + i;
+            as[i] = a;
+            if (i + 1 == rows) break;
+            // Each term needs the last, so this loop stays sequential
+            if (kernel != null) {
+                vars['A' - 'A'] = a;
+                vars['N' - 'A'] = ns[i];
+                a = kernel.scalar(vars, stack);
+            } else {
+                scratch.setVar('A', a);
+                scratch.setVar('N', ns[i]);
+                try {
+                    a = expr.evaluate(scratch);
+                } catch (CasioBasicError e) {
+                    if (!e.getMessage().startsWith("Math ERROR")) throw e;
+                    a = Double.NaN;
+                }
+            }
+        }
+        env.setList(25, ns);
+        env.setList(26, as);
+        FunctionTableNode.show(env, ns, as);
+        return 0;
+    }
+}
+
+//////////////////////////////////////////////////////////////
+//                           LINK                           //
+//////////////////////////////////////////////////////////////
+
+/**
+ * SEND ::= `Send(` EXPR `)` |
+ *          `Send38k` EXPR
+ */
+class SendNode implements ASTNode {
+    private ASTNode expr;
+    private boolean comport;
+
+    SendNode(ASTNode expr, boolean comport) { this.expr = expr; this.comport = comport; }
+
+    public String toString() {
+        return comport ? "Send38k " + expr : "Send(" + expr + ")";
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + (comport ? "SEND_38K" : "SEND") + " [\n";
+        out += expr.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) {
+        Object value;
+        switch (expr.kind()) {
+            case LIST:   value = expr.evaluateList(env); break;
+            case MATRIX: value = expr.evaluateMatrix(env); break;
+            case STRING: value = expr.evaluateString(env); break;
+            default:     value = expr.evaluate(env); break;
+        }
+        env.send(value, comport);
+        return 0;
+    }
+}
+
+/**
+ * RECEIVE ::= `Receive(` TARGET `)` |
+ *             `Receive38k` TARGET
+ */
+class ReceiveNode implements ASTNode {
+    // What is received into: variable A-Z (0-25), List 1-26, Mat A-Z (0-25) or Str 1-20
+    private int kind;
+    private int target;
+    private boolean comport;
+
+    ReceiveNode(int kind, int target, boolean comport) { this.kind = kind; this.target = target; this.comport = comport; }
+
+    private String targetString() {
+        switch (kind) {
+            case LIST:   return "List " + target;
+            case MATRIX: return "Mat " + (char) ('A' + target);
+            case STRING: return "Str " + target;
+            default:     return "" + (char) ('A' + target);
+        }
+    }
+
+    public String toString() {
+        return comport ? "Receive38k " + targetString() : "Receive(" + targetString() + ")";
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + (comport ? "RECEIVE_38K " : "RECEIVE ") + targetString() + "\n";
+    }
+
+    public double evaluate(Environment env) {
+        Object value = env.receive(comport);
+        if (kind == NUMBER && value instanceof Double) env.setVar((char) ('A' + target), (Double) value);
+        else if (kind == LIST && value instanceof double[]) env.setList(target, (double[]) value);
+        else if (kind == MATRIX && value instanceof Matrix) env.setMatrix((char) ('A' + target), (Matrix) value);
+        else if (kind == STRING && value instanceof Rope) env.setString(target, (Rope) value);
+        else throw new CasioBasicError("Com ERROR: received data doesn't fit " + targetString());
+        return 0;
+    }
+}
+
+/**
+ * COMPORT ::= `OpenComport38k` | `CloseComport38k`
+ */
+class ComportNode implements ASTNode {
+    private boolean open;
+
+    ComportNode(boolean open) { this.open = open; }
+
+    public String toString() {
+        return open ? "OpenComport38k" : "CloseComport38k";
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + (open ? "OPEN_COMPORT" : "CLOSE_COMPORT") + "\n";
+    }
+
+    public double evaluate(Environment env) {
+        if (open) env.openComport();
+        else env.closeComport();
+        return 0;
+    }
+}
+
+//////////////////////////////////////////////////////////////
+//                           LISTS                          //
+//////////////////////////////////////////////////////////////
+
+/**
+ * LIST_LITERAL ::= `{` EXPR ( `,` EXPR )* `}`
+ */
+class ListLiteralNode implements ASTNode {
+    private ASTNode[] items;
+
+    ListLiteralNode(List<ASTNode> items) { this.items = items.toArray(new ASTNode[0]); }
+
+    public String toString() {
+        String out = "";
+        for (ASTNode item : items) out += (out.isEmpty() ? "" : ", ") + item;
+        return "{" + out + "}";
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "LIST_LITERAL [\n";
+        for (ASTNode item : items) out += item.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public int kind() { return LIST; }
+
+    public double evaluate(Environment env) { throw new CasioBasicError("Argument ERROR: expects a number, got a list"); }
+
+    public double[] evaluateList(Environment env) {
+        double[] values = new double[items.length];
+        for (int i = 0; i < items.length; i++) values[i] = items[i].evaluate(env);
+        return values;
+    }
+}
+
+/**
+ * LIST ::= `List` [1-26]
+ */
+class ListNode implements ASTNode {
+    private int list;
+
+    ListNode(int list) { this.list = list; }
+
+    public String toString() {
+        return "List " + list;
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + "LIST " + list + "\n";
+    }
+
+    public int kind() { return LIST; }
+
+    public double evaluate(Environment env) { throw new CasioBasicError("Argument ERROR: expects a number, got a list"); }
+
+    public double[] evaluateList(Environment env) { return env.getList(list); }
+}
+
+/**
+ * LIST_ELEMENT ::= `List` [1-26] `[` EXPR `]`
+ */
+class ListElementNode implements ASTNode {
+    private int list;
+    private ASTNode index;
+
+    ListElementNode(int list, ASTNode index) { this.list = list; this.index = index; }
+
+    public String toString() {
+        return "List " + list + "[" + index + "]";
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "LIST_ELEMENT " + list + " [\n";
+        out += index.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) {
+        double[] values = env.getList(list);
+        int i = (int) index.evaluate(env);
+        if (i < 1 || i > values.length) throw new CasioBasicError("Dimension ERROR: no element " + i + " in List " + list);
+        return values[i - 1];
+    }
+}
+
+/**
+ * LIST_ASSIGN ::= EXPR `->` `List` [1-26]
+ */
+class ListAssignNode implements ASTNode {
+    private ASTNode expr;
+    private int list;
+
+    ListAssignNode(ASTNode expr, int list) { this.expr = expr; this.list = list; }
+
+    public String toString() {
+        return expr + " -> List " + list;
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "LIST_ASSIGN " + list + " [\n";
+        out += expr.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) {
+        env.setList(list, expr.evaluateList(env));
+        return 0;
+    }
+}
+
+/**
+ * LIST_ELEMENT_ASSIGN ::= EXPR `->` `List` [1-26] `[` EXPR `]`
+ */
+class ListElementAssignNode implements ASTNode {
+    private ASTNode expr;
+    private int list;
+    private ASTNode index;
+
+    ListElementAssignNode(ASTNode expr, int list, ASTNode index) { this.expr = expr; this.list = list; this.index = index; }
+
+    public String toString() {
+        return expr + " -> List " + list + "[" + index + "]";
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "LIST_ELEMENT_ASSIGN " + list + " [\n";
+        out += expr.debugString(prefix + pad, pad);
+        out += index.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) {
+        double value = expr.evaluate(env);
+        env.setListElement(list, (int) index.evaluate(env), value);
+        return value;
+    }
+}
+
+/**
+ * SUM_LIST ::= `Sum` FACTOR
+ */
+class SumListNode implements ASTNode {
+    private ASTNode list;
+
+    SumListNode(ASTNode list) { this.list = list; }
+
+    public ASTNode getList() { return list; }
+
+    public String toString() {
+        return "Sum " + list;
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "SUM_LIST [\n";
+        out += list.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) { return VectorOps.sum(list.evaluateList(env)); }
+}
+
+/**
+ * PROD_LIST ::= `Prod` FACTOR
+ */
+class ProdListNode implements ASTNode {
+    private ASTNode list;
+
+    ProdListNode(ASTNode list) { this.list = list; }
+
+    public ASTNode getList() { return list; }
+
+    public String toString() {
+        return "Prod " + list;
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "PROD_LIST [\n";
+        out += list.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) { return VectorOps.prod(list.evaluateList(env)); }
+}
+
+/**
+ * DIM ::= `Dim` FACTOR
+ *
+ * The length of a list, or the list {rows, columns} of a matrix
+ */
+class DimNode implements ASTNode {
+    private ASTNode value;
+
+    DimNode(ASTNode value) { this.value = value; }
+
+    public String toString() {
+        return "Dim " + value;
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "DIM [\n";
+        out += value.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public int kind() { return value.kind() == MATRIX ? LIST : NUMBER; }
+
+    public double evaluate(Environment env) { return value.evaluateList(env).length; }
+
+    public double[] evaluateList(Environment env) {
+        Matrix matrix = value.evaluateMatrix(env);
+        return new double[] { matrix.getRows(), matrix.getCols() };
+    }
+}
+
+/**
+ * CLR_LIST ::= `ClrList` ( [1-26] )
+ */
+class ClrListNode implements ASTNode {
+    // 0 clears every list
+    private int list;
+
+    ClrListNode(int list) { this.list = list; }
+
+    public String toString() {
+        return list == 0 ? "ClrList" : "ClrList " + list;
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + "CLR_LIST" + (list == 0 ? "" : " " + list) + "\n";
+    }
+
+    public double evaluate(Environment env) {
+        env.clearLists(list);
+        return 0;
+    }
+}
+
+//////////////////////////////////////////////////////////////
+//                         MATRICES                         //
+//////////////////////////////////////////////////////////////
+
+/**
+ * MAT_LITERAL ::= `[` ( `[` EXPR ( `,` EXPR )* `]` )+ `]`
+ */
+class MatLiteralNode implements ASTNode {
+    private ASTNode[][] rows;
+
+    MatLiteralNode(ASTNode[][] rows) { this.rows = rows; }
+
+    public String toString() {
+        String out = "[";
+        for (ASTNode[] row : rows) {
+            String items = "";
+            for (ASTNode item : row) items += (items.isEmpty() ? "" : ", ") + item;
+            out += "[" + items + "]";
+        }
+        return out + "]";
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "MAT_LITERAL [\n";
+        for (ASTNode[] row : rows) {
+            out += prefix + pad + "ROW [\n";
+            for (ASTNode item : row) out += item.debugString(prefix + pad + pad, pad);
+            out += prefix + pad + "]\n";
+        }
+        return out + prefix + "]\n";
+    }
+
+    public int kind() { return MATRIX; }
+
+    public double evaluate(Environment env) { throw new CasioBasicError("Argument ERROR: expects a number, got a matrix"); }
+
+    public Matrix evaluateMatrix(Environment env) {
+        Matrix matrix = new Matrix(rows.length, rows[0].length);
+        for (int i = 0; i < rows.length; i++) {
+            for (int j = 0; j < rows[i].length; j++) matrix.set(i + 1, j + 1, rows[i][j].evaluate(env));
+        }
+        return matrix;
+    }
+}
+
+/**
+ * MAT ::= `Mat` [A-Z]
+ */
+class MatNode implements ASTNode {
+    private char name;
+
+    MatNode(char name) { this.name = name; }
+
+    public String toString() {
+        return "Mat " + name;
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + "MAT " + name + "\n";
+    }
+
+    public int kind() { return MATRIX; }
+
+    public double evaluate(Environment env) { throw new CasioBasicError("Argument ERROR: expects a number, got a matrix"); }
+
+    public Matrix evaluateMatrix(Environment env) { return env.getMatrix(name); }
+}
+
+/**
+ * MAT_ELEMENT ::= `Mat` [A-Z] `[` EXPR `,` EXPR `]`
+ */
+class MatElementNode implements ASTNode {
+    private char name;
+    private ASTNode row;
+    private ASTNode col;
+
+    MatElementNode(char name, ASTNode row, ASTNode col) { this.name = name; this.row = row; this.col = col; }
+
+    public String toString() {
+        return "Mat " + name + "[" + row + ", " + col + "]";
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "MAT_ELEMENT " + name + " [\n";
+        out += row.debugString(prefix + pad, pad);
+        out += col.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) {
+        return env.getMatrix(name).get((int) row.evaluate(env), (int) col.evaluate(env));
+    }
+}
+
+/**
+ * MAT_ASSIGN ::= EXPR `->` `Mat` [A-Z]
+ */
+class MatAssignNode implements ASTNode {
+    private ASTNode expr;
+    private char name;
+
+    MatAssignNode(ASTNode expr, char name) { this.expr = expr; this.name = name; }
+
+    public String toString() {
+        return expr + " -> Mat " + name;
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "MAT_ASSIGN " + name + " [\n";
+        out += expr.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) {
+        env.setMatrix(name, expr.evaluateMatrix(env));
+        return 0;
+    }
+}
+
+/**
+ * MAT_ELEMENT_ASSIGN ::= EXPR `->` `Mat` [A-Z] `[` EXPR `,` EXPR `]`
+ */
+class MatElementAssignNode implements ASTNode {
+    private ASTNode expr;
+    private char name;
+    private ASTNode row;
+    private ASTNode col;
+
+    MatElementAssignNode(ASTNode expr, char name, ASTNode row, ASTNode col) {
+        this.expr = expr;
+        this.name = name;
+        this.row = row;
+        this.col = col;
+    }
+
+    public String toString() {
+        return expr + " -> Mat " + name + "[" + row + ", " + col + "]";
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "MAT_ELEMENT_ASSIGN " + name + " [\n";
+        out += expr.debugString(prefix + pad, pad);
+        out += row.debugString(prefix + pad, pad);
+        out += col.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) {
+        double value = expr.evaluate(env);
+        env.setMatrixElement(name, (int) row.evaluate(env), (int) col.evaluate(env), value);
+        return value;
+    }
+}
+
+/**
+ * CLR_MAT ::= `ClrMat` ( [A-Z] )
+ */
+class ClrMatNode implements ASTNode {
+    // 0 clears every matrix
+    private char name;
+
+    ClrMatNode(char name) { this.name = name; }
+
+    public String toString() {
+        return name == 0 ? "ClrMat" : "ClrMat " + name;
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + "CLR_MAT" + (name == 0 ? "" : " " + name) + "\n";
+    }
+
+    public double evaluate(Environment env) {
+        env.clearMatrices(name);
+        return 0;
+    }
+}
+
+//////////////////////////////////////////////////////////////
+//                          NUMBER                          //
+//////////////////////////////////////////////////////////////
+
+/**
+ * NUMBER ::= [0-9]+
+ */
+class NumberNode implements ASTNode {
+    private double value;
+
+    NumberNode(double value) { this.value = value; }
+
+    public String toString() {
+        return Environment.format(value);
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "NUMBER [\n";
+        out += prefix + pad + toString() + "\n";
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) { return value; }
+
+    public boolean compile(Kernel kernel) { return kernel.emitConst(value); }
+}
+
+//////////////////////////////////////////////////////////////
 //                            TEXT                          //
 //////////////////////////////////////////////////////////////
 
@@ -749,8 +2197,11 @@ class NumberNode implements ASTNode {
  */
 class TextNode implements ASTNode {
     private String value;
+    private Rope rope;
+
+    TextNode(String value) { this.value = value; this.rope = Rope.of(value); }
 
-    TextNode(String value) { this.value = value; }
+    public String getValue() { return value; }
 
     public String toString() {
         return "\"" + value + "\"";
@@ -761,4 +2212,208 @@ class TextNode implements ASTNode {
         out += prefix + pad + toString() + "\n";
         return out + prefix + "]\n";
     }
+
+    public int kind() { return STRING; }
+
+    public double evaluate(Environment env) { throw new CasioBasicError("Argument ERROR: expects a number, got a string"); }
+
+    public Rope evaluateString(Environment env) { return rope; }
+}
+
+/**
+ * PRINT ::= EXPR
+ *
+ * A statement that is only a string writes it on the next line
+ */
+class PrintNode implements ASTNode {
+    private ASTNode text;
+
+    PrintNode(ASTNode text) { this.text = text; }
+
+    public String toString() {
+        return text.toString();
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "PRINT [\n";
+        out += text.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) {
+        env.print(text.evaluateString(env));
+        return 0;
+    }
+}
+
+//////////////////////////////////////////////////////////////
+//                          STRINGS                         //
+//////////////////////////////////////////////////////////////
+
+/**
+ * STR ::= `Str` [1-20]
+ */
+class StrNode implements ASTNode {
+    private int str;
+
+    StrNode(int str) { this.str = str; }
+
+    public String toString() {
+        return "Str " + str;
+    }
+
+    public String debugString(String prefix, String pad) {
+        return prefix + "STR " + str + "\n";
+    }
+
+    public int kind() { return STRING; }
+
+    public double evaluate(Environment env) { throw new CasioBasicError("Argument ERROR: expects a number, got a string"); }
+
+    public Rope evaluateString(Environment env) { return env.getString(str); }
+}
+
+/**
+ * STR_ASSIGN ::= EXPR `->` `Str` [1-20]
+ */
+class StrAssignNode implements ASTNode {
+    private ASTNode expr;
+    private int str;
+
+    StrAssignNode(ASTNode expr, int str) { this.expr = expr; this.str = str; }
+
+    public String toString() {
+        return expr + " -> Str " + str;
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + "STR_ASSIGN " + str + " [\n";
+        out += expr.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public double evaluate(Environment env) {
+        env.setString(str, expr.evaluateString(env));
+        return 0;
+    }
+}
+
+/**
+ * STR_FUNCTION ::= ( `StrJoin` | `StrMid` | ... ) `(` EXPR ( `,` EXPR )* `)`
+ *
+ * Every function that returns a string shares the characters of its
+ * arguments, see Rope
+ */
+class StrFunctionNode implements ASTNode {
+    private TokenType function;
+    private String name;
+    private ASTNode[] args;
+
+    StrFunctionNode(TokenType function, String name, List<ASTNode> args) {
+        this.function = function;
+        this.name = name;
+        this.args = args.toArray(new ASTNode[0]);
+    }
+
+    /**
+     * Whether each argument of the function is a string, or null for tokens
+     * that aren't functions
+     */
+    static boolean[] signature(TokenType function) {
+        switch (function) {
+            case STR_JOIN:   return new boolean[] { true, true };
+            case STR_LEN:    return new boolean[] { true };
+            case STR_CMP:    return new boolean[] { true, true };
+            case STR_SRC:    return new boolean[] { true, true, false };
+            case STR_LEFT:   return new boolean[] { true, false };
+            case STR_RIGHT:  return new boolean[] { true, false };
+            case STR_MID:    return new boolean[] { true, false, false };
+            case STR_INV:    return new boolean[] { true };
+            case STR_SHIFT:  return new boolean[] { true, false };
+            case STR_ROTATE: return new boolean[] { true, false };
+            case STR_UPR:    return new boolean[] { true };
+            case STR_LWR:    return new boolean[] { true };
+            default:         return null;
+        }
+    }
+
+    /**
+     * How many arguments can be left off the end
+     */
+    static int optional(TokenType function) {
+        switch (function) {
+            case STR_SRC:
+            case STR_MID:
+            case STR_SHIFT:
+            case STR_ROTATE: return 1;
+            default:         return 0;
+        }
+    }
+
+    public String toString() {
+        String out = "";
+        for (ASTNode arg : args) out += (out.isEmpty() ? "" : ", ") + arg;
+        return name + "(" + out + ")";
+    }
+
+    public String debugString(String prefix, String pad) {
+        String out = prefix + function + " [\n";
+        for (ASTNode arg : args) out += arg.debugString(prefix + pad, pad);
+        return out + prefix + "]\n";
+    }
+
+    public int kind() {
+        switch (function) {
+            case STR_LEN:
+            case STR_CMP:
+            case STR_SRC: return NUMBER;
+            default:      return STRING;
+        }
+    }
+
+    private int intArg(int i, int otherwise, Environment env) {
+        return i < args.length ? (int) args[i].evaluate(env) : otherwise;
+    }
+
+    public double evaluate(Environment env) {
+        Rope s = args[0].evaluateString(env);
+        switch (function) {
+            case STR_LEN: return s.length();
+            case STR_CMP: return Rope.compare(s, args[1].evaluateString(env));
+            case STR_SRC: {
+                Rope target = args[1].evaluateString(env);
+                int from = intArg(2, 1, env);
+                if (from < 1) throw new CasioBasicError("Argument ERROR: `" + name + "` position must be at least 1");
+                return s.indexOf(target, from - 1) + 1;
+            }
+            default: throw new CasioBasicError("Argument ERROR: expects a number, got a string");
+        }
+    }
+
+    public Rope evaluateString(Environment env) {
+        Rope s = args[0].evaluateString(env);
+        int length = s.length();
+        switch (function) {
+            case STR_JOIN: return s.concat(args[1].evaluateString(env));
+            case STR_LEFT: return s.subSequence(0, clamp(intArg(1, 0, env), length));
+            case STR_RIGHT: return s.subSequence(length - clamp(intArg(1, 0, env), length), length);
+            case STR_MID: {
+                int start = intArg(1, 1, env);
+                if (start < 1) throw new CasioBasicError("Argument ERROR: `" + name + "` position must be at least 1");
+                start = Math.min(start - 1, length);
+                return s.subSequence(start, start + clamp(intArg(2, length, env), length - start));
+            }
+            case STR_ROTATE: return s.rotate(intArg(1, 1, env));
+            case STR_SHIFT: return s.shift(intArg(1, 1, env));
+            case STR_INV: return Rope.of(new StringBuilder(s).reverse());
+            case STR_UPR: return Rope.of(s.toString().toUpperCase());
+            case STR_LWR: return Rope.of(s.toString().toLowerCase());
+            default: throw new CasioBasicError("Argument ERROR: expects a string, got a number");
+        }
+    }
+
+    private static int clamp(int n, int max) {
+        if (n < 0) throw new CasioBasicError("Argument ERROR: negative length");
+        return Math.min(n, max);
+    }
 }
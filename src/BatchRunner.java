@@ -0,0 +1,268 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Lexes, parses and optionally runs many `.cb` files on a fixed size worker
+ * pool. Each file gets its own lexer, parser and environment, so the workers
+ * only share the engine's compile cache and the final report
+ */
+public class BatchRunner {
+    private Engine engine;
+    private boolean run;
+    private int jobs;
+    // Keys replayed into every program, if any
+    private KeyTimeline keys;
+    // Where each program's frames are recorded, if anywhere
+    private Path recordDir;
+    // Where each program's graph screen is written, if anywhere
+    private Path graphDir;
+    private boolean png;
+    // The other calculator every program is cabled to, if any
+    private SocketAddress linkAddress;
+    private boolean linkListen;
+    // Hot lines reported per program, 0 for no profiling
+    private int profileLines;
+    // Where the traces of programs that fail are dumped, if anywhere
+    private Path traceDir;
+    private int traceSize;
+
+    BatchRunner(Engine engine, boolean run, int jobs) {
+        this.engine = engine;
+        this.run = run;
+        this.jobs = jobs;
+    }
+
+    public void setKeys(KeyTimeline keys) { this.keys = keys; }
+
+    /**
+     * Records the frames of every program into `<dir>/<file name>.frames`
+     */
+    public void setRecordDir(Path recordDir) { this.recordDir = recordDir; }
+
+    /**
+     * Writes the graph screen of every program that drew one into
+     * `<dir>/<file name>.pbm`, or `.png` if `png`
+     */
+    public void setGraphDir(Path graphDir, boolean png) {
+        this.graphDir = graphDir;
+        this.png = png;
+    }
+
+    /**
+     * Cables the program to another calculator, listening for it at the
+     * address or connecting to it there. Only one file can be run with a
+     * link, as every program would open the same address
+     */
+    public void setLink(SocketAddress linkAddress, boolean linkListen) {
+        this.linkAddress = linkAddress;
+        this.linkListen = linkListen;
+    }
+
+    /**
+     * Profiles every program, reporting its `lines` hottest statements
+     */
+    public void setProfile(int lines) { this.profileLines = lines; }
+
+    /**
+     * Traces every program, keeping its last `size` events, and dumps the
+     * trace of each one that fails into `<dir>/<file name>.trace`
+     */
+    public void setTrace(Path traceDir, int size) {
+        this.traceDir = traceDir;
+        this.traceSize = size;
+    }
+
+    /**
+     * The outcome of a single file
+     */
+    static class Result {
+        Path path;
+        Diagnostic error;
+        int tokenCount;
+        long nanos;
+        String output = "";
+        String profile = "";
+
+        Result(Path path) { this.path = path; }
+
+        public boolean isOk() { return error == null; }
+
+        public String toString() {
+            String out = (isOk() ? "OK    " : "FAIL  ") + path + " (" + tokenCount + " tokens, " + nanos / 1000 + "us)";
+            if (!isOk()) out += "\n      " + error;
+            for (String line : output.split("\n")) {
+                if (!line.isEmpty()) out += "\n      | " + line;
+            }
+            for (String line : profile.split("\n")) {
+                if (!line.isEmpty()) out += "\n      " + line;
+            }
+            return out;
+        }
+    }
+
+    /**
+     * Expands files, directories (searched recursively for `.cb` files) and
+     * glob patterns such as `tests/*.cb` into a sorted list of files
+     */
+    public static List<Path> collect(List<String> patterns) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String pattern : patterns) {
+            int glob = firstGlobChar(pattern);
+            if (glob < 0) {
+                Path path = Paths.get(pattern);
+                if (Files.isDirectory(path)) walk(path, FileSystems.getDefault().getPathMatcher("glob:**.cb"), files);
+                else files.add(path);
+                continue;
+            }
+            // Walk from the deepest directory that has no glob characters in it
+            int slash = pattern.lastIndexOf('/', glob);
+            Path base = Paths.get(slash < 0 ? "." : pattern.substring(0, slash + 1));
+            String rest = slash < 0 ? pattern : pattern.substring(slash + 1);
+            walk(base, FileSystems.getDefault().getPathMatcher("glob:" + rest), files);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static int firstGlobChar(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') return i;
+        }
+        return -1;
+    }
+
+    private static void walk(Path base, PathMatcher matcher, List<Path> files) throws IOException {
+        try (Stream<Path> paths = Files.walk(base)) {
+            paths.filter(Files::isRegularFile)
+                 .filter(p -> matcher.matches(base.relativize(p)))
+                 .forEach(files::add);
+        }
+    }
+
+    /**
+     * Processes every file and returns the results in the same order as the
+     * files were given
+     */
+    public List<Result> runAll(List<Path> files) throws InterruptedException {
+        if (linkAddress != null && files.size() > 1) throw new IllegalArgumentException("A link can only be used with one file");
+        if (recordDir != null || graphDir != null || traceDir != null) {
+            // Outputs are named after the file, so two files of the same name would write over each other
+            Set<Path> names = new HashSet<>();
+            for (Path file : files) {
+                if (!names.add(file.getFileName())) throw new IllegalArgumentException("Two files are named " + file.getFileName() + ", their outputs would have the same name");
+            }
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        try {
+            List<Future<Result>> futures = new ArrayList<>(files.size());
+            for (Path file : files) futures.add(pool.submit(() -> process(file)));
+
+            List<Result> results = new ArrayList<>(files.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    // process() catches everything it knows about, so this is a bug, but only in this file
+                    Result result = new Result(files.get(i));
+                    result.error = new Diagnostic(Diagnostic.Stage.RUN, null, "Internal error: " + e.getCause());
+                    results.add(result);
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Result process(Path file) {
+        Result result = new Result(file);
+        long start = System.nanoTime();
+        try {
+            Engine.CompileResult compiled = engine.compile(new File(file.toString()));
+            result.tokenCount = compiled.getTokenCount();
+            if (!compiled.isOk()) result.error = compiled.getDiagnostics().get(0);
+            else if (run) {
+                Environment env = new Environment();
+                if (keys != null) env.setKeySource(keys.replay());
+                Profiler profiler = null;
+                if (profileLines > 0) {
+                    profiler = new Profiler();
+                    env.setProfiler(profiler);
+                }
+                Tracer tracer = null;
+                if (traceDir != null) {
+                    tracer = new Tracer(traceSize);
+                    env.setTracer(tracer);
+                }
+                FrameRecorder recorder = null;
+                Link link = null;
+                Engine.RunResult ran;
+                try {
+                    if (recordDir != null) {
+                        recorder = new FrameRecorder(recordDir.resolve(file.getFileName() + ".frames"), null);
+                        env.setDisplaySink(recorder);
+                    }
+                    if (linkAddress != null) {
+                        link = linkListen ? ChannelLink.listen(linkAddress) : ChannelLink.connect(linkAddress);
+                        env.setLink(link);
+                    }
+                    ran = engine.run(compiled, env);
+                } finally {
+                    if (link != null) link.close();
+                    if (recorder != null) recorder.close();
+                }
+                if (graphDir != null && env.hasGraph()) {
+                    if (png) env.getGraph().writePng(graphDir.resolve(file.getFileName() + ".png"));
+                    else env.getGraph().writePbm(graphDir.resolve(file.getFileName() + ".pbm"));
+                }
+                result.output = env.getDisplay().toString();
+                if (profiler != null) result.profile = profiler.report(profileLines);
+                if (!ran.isOk()) {
+                    result.error = ran.getDiagnostics().get(0);
+                    if (tracer != null) tracer.dump(traceDir.resolve(file.getFileName() + ".trace"));
+                }
+            }
+        } catch (IOException e) {
+            result.error = new Diagnostic(Diagnostic.Stage.RUN, null, "Could not write output: " + e.getMessage());
+        } catch (RuntimeException e) {
+            result.error = new Diagnostic(Diagnostic.Stage.COMPILE, null, "Internal error: " + e);
+        } catch (StackOverflowError e) {
+            result.error = new Diagnostic(Diagnostic.Stage.RUN, null, "Stack ERROR: program nests too deeply");
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Prints one line per file followed by a summary
+     */
+    public static void report(List<Result> results, long nanos, PrintStream out) {
+        int failed = 0;
+        long tokens = 0;
+        for (Result result : results) {
+            out.println(result);
+            if (!result.isOk()) failed ++;
+            tokens += result.tokenCount;
+        }
+        out.println();
+        out.println(results.size() + " files, " + (results.size() - failed) + " ok, " + failed + " failed, "
+                    + tokens + " tokens in " + nanos / 1_000_000 + "ms");
+    }
+}
@@ -0,0 +1,73 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Limits on how much a single run may do: loop iterations, wall clock time
+ * and bytes allocated by its thread. A limit of 0 means unlimited.
+ *
+ * The interpreter only counts backward edges (the end of every `While`,
+ * `Do` and `For` iteration, and every `Goto` that jumps back), and only calls `check()` once every
+ * CHECK_INTERVAL of them, so straight line code pays nothing and loops pay
+ * a decrement and a compare
+ */
+public class Budget {
+    static final int CHECK_INTERVAL = 1024;
+
+    private long maxIterations;
+    private long maxNanos;
+    private long maxBytes;
+
+    private long iterations;
+    private long startNanos;
+    private long startBytes;
+    private volatile boolean cancelled;
+
+    Budget(long maxIterations, long maxMillis, long maxBytes) {
+        this.maxIterations = maxIterations;
+        this.maxNanos = maxMillis * 1_000_000;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Thrown when a run goes over its budget or is cancelled
+     */
+    static class ExceededError extends CasioBasicError {
+        private static final long serialVersionUID = 1L;
+
+        ExceededError(TokenLocation loc, String message) { super(loc, message); }
+    }
+
+    /**
+     * Called by the environment when the run starts, on the thread that runs it
+     */
+    void start() {
+        startNanos = System.nanoTime();
+        if (maxBytes > 0) startBytes = allocatedBytes();
+    }
+
+    /**
+     * Stops the run at its next backward edge. Safe to call from any thread
+     */
+    public void cancel() { cancelled = true; }
+
+    /**
+     * Accounts for `used` backward edges, fails if the run is over budget,
+     * and returns how many more edges it may take before the next check
+     */
+    long check(long used, TokenLocation loc) {
+        iterations += used;
+        if (cancelled) throw new ExceededError(loc, "Break: run was cancelled");
+        if (maxIterations > 0 && iterations >= maxIterations) throw new ExceededError(loc, "Break: loop iteration budget of " + maxIterations + " exhausted");
+        if (maxNanos > 0 && System.nanoTime() - startNanos > maxNanos) throw new ExceededError(loc, "Break: time budget of " + maxNanos / 1_000_000 + "ms exhausted");
+        if (maxBytes > 0 && allocatedBytes() - startBytes > maxBytes) throw new ExceededError(loc, "Break: memory budget of " + maxBytes + " bytes exhausted");
+        if (maxIterations > 0) return Math.min(CHECK_INTERVAL, maxIterations - iterations);
+        return CHECK_INTERVAL;
+    }
+
+    public long getIterations() { return iterations; }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return 0;
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -1,14 +1,360 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 class CasioBasic {
-    public static void main(String[] args) {
-        File file = new File("tests/if.cb");
-        Lexer lexer = new Lexer(file);
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            File file = new File("tests/if.cb");
+            try {
+                Lexer lexer = new Lexer(file);
 
-        // for (Token tok : lexer.getTokens()) { System.out.println(tok.getVal()); }
+                // for (Token tok : lexer.getTokens()) { System.out.println(tok.getVal()); }
 
-        Parser parser = new Parser(lexer.getTokens());
-        System.out.println(parser.getRoot().debugString("", "  "));
-        // System.out.println(parser.getRoot());
+                Parser parser = new Parser(lexer.getTokens());
+                System.out.println(parser.getRoot().debugString("", "  "));
+                // System.out.println(parser.getRoot());
+            } catch (CasioBasicError e) {
+                System.out.println(e);
+                System.exit(1);
+            }
+            return;
+        }
+        if (args[0].equals("--daemon")) daemon(args);
+        else if (args[0].equals("--client")) client(args);
+        else if (args[0].equals("--play")) play(args);
+        else if (args[0].equals("--show-trace")) showTrace(args);
+        else if (args[0].equals("--sweep")) sweep(args);
+        else if (args[0].equals("--suspend") || args[0].equals("--resume")) snapshot(args);
+        else if (args[0].equals("--generate")) generate(args);
+        else batch(args);
     }
-}
\ No newline at end of file
+
+    /**
+     * CasioBasic [--run] [--jobs N] [--max-iterations N] [--timeout MS] [--keys FILE] [--record DIR] [--graph DIR] [--png]
+     *            [--link-listen PORT|PATH | --link-connect PORT|PATH] [--profile [N]]
+     *            [--trace DIR] [--trace-size N] [--lib DIR] (FILE | DIR | GLOB)+
+     */
+    private static void batch(String[] args) throws Exception {
+        boolean run = false;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        long maxIterations = 0;
+        long timeout = 0;
+        KeyTimeline keys = null;
+        Path recordDir = null;
+        Path graphDir = null;
+        boolean png = false;
+        SocketAddress linkAddress = null;
+        boolean linkListen = false;
+        int profile = 0;
+        Path traceDir = null;
+        int traceSize = 65536;
+        File lib = null;
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--run")) run = true;
+            else if (args[i].equals("--jobs") && i + 1 < args.length) jobs = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--max-iterations") && i + 1 < args.length) maxIterations = Long.parseLong(args[++i]);
+            else if (args[i].equals("--timeout") && i + 1 < args.length) timeout = Long.parseLong(args[++i]);
+            else if (args[i].equals("--keys") && i + 1 < args.length) keys = KeyTimeline.load(Path.of(args[++i]));
+            else if (args[i].equals("--record") && i + 1 < args.length) recordDir = Path.of(args[++i]);
+            else if (args[i].equals("--graph") && i + 1 < args.length) graphDir = Path.of(args[++i]);
+            else if (args[i].equals("--png")) png = true;
+            else if (args[i].startsWith("--link-") && i + 1 < args.length) {
+                linkListen = args[i].equals("--link-listen");
+                linkAddress = linkAddress(args[++i]);
+            }
+            else if (args[i].equals("--profile")) {
+                profile = 20;
+                if (i + 1 < args.length && args[i + 1].matches("[0-9]+")) profile = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("--trace") && i + 1 < args.length) traceDir = Path.of(args[++i]);
+            else if (args[i].equals("--trace-size") && i + 1 < args.length) traceSize = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--lib") && i + 1 < args.length) lib = new File(args[++i]);
+            else patterns.add(args[i]);
+        }
+
+        long start = System.nanoTime();
+        Engine engine = new Engine();
+        engine.setBudget(maxIterations, timeout, 0);
+        if (lib != null) engine.setLibrary(lib, 256);
+        BatchRunner runner = new BatchRunner(engine, run, jobs);
+        runner.setKeys(keys);
+        runner.setRecordDir(recordDir);
+        runner.setGraphDir(graphDir, png);
+        runner.setLink(linkAddress, linkListen);
+        runner.setProfile(profile);
+        if (traceDir != null) runner.setTrace(traceDir, traceSize);
+        List<BatchRunner.Result> results = null;
+        try {
+            results = runner.runAll(BatchRunner.collect(patterns));
+        } catch (IllegalArgumentException e) {
+            System.out.println("ERROR: " + e.getMessage());
+            System.exit(1);
+        }
+        BatchRunner.report(results, System.nanoTime() - start, System.out);
+        for (BatchRunner.Result result : results) {
+            if (!result.isOk()) System.exit(1);
+        }
+    }
+
+    /**
+     * A port on the loopback interface, or else a Unix domain socket path
+     */
+    private static SocketAddress linkAddress(String arg) {
+        if (arg.matches("[0-9]+")) return Daemon.address(null, Integer.parseInt(arg));
+        return Daemon.address(arg, 0);
+    }
+
+    /**
+     * CasioBasic --daemon [--port N | --socket PATH] [--max-iterations N] [--timeout MS] [--lib DIR]
+     */
+    private static void daemon(String[] args) throws Exception {
+        String socket = null;
+        int port = Daemon.DEFAULT_PORT;
+        long maxIterations = 0;
+        // A program that never ends would hold one of the workers for good
+        long timeout = Daemon.DEFAULT_TIMEOUT;
+        File lib = null;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--socket")) socket = args[i + 1];
+            else if (args[i].equals("--port")) port = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("--max-iterations")) maxIterations = Long.parseLong(args[i + 1]);
+            else if (args[i].equals("--timeout")) timeout = Long.parseLong(args[i + 1]);
+            else if (args[i].equals("--lib")) lib = new File(args[i + 1]);
+        }
+        Engine engine = new Engine();
+        engine.setBudget(maxIterations, timeout, 0);
+        if (lib != null) engine.setLibrary(lib, 256);
+        engine.getMetrics().register("daemon");
+        Daemon daemon = new Daemon(engine, Daemon.address(socket, port));
+        System.out.println("Listening on " + (socket != null ? socket : "localhost:" + port));
+        daemon.serve();
+    }
+
+    /**
+     * CasioBasic --client [--port N | --socket PATH] [--check] FILE
+     */
+    private static void client(String[] args) throws Exception {
+        String socket = null;
+        int port = Daemon.DEFAULT_PORT;
+        String command = "RUN";
+        String file = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--socket") && i + 1 < args.length) socket = args[++i];
+            else if (args[i].equals("--port") && i + 1 < args.length) port = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--check")) command = "CHECK";
+            else file = args[i];
+        }
+        if (file == null) { System.out.println("ERROR: --client expects a file"); System.exit(1); }
+        if (!Daemon.request(Daemon.address(socket, port), command, Path.of(file), System.out)) System.exit(1);
+    }
+
+    /**
+     * CasioBasic --sweep FRAMES.csv [--jobs N] [--max-iterations N] [--timeout MS] [--lib DIR] FILE
+     *
+     * FRAMES.csv has a header naming variables, then one row of starting
+     * values per run. Prints A-Z after every run as CSV, with an error column
+     */
+    private static void sweep(String[] args) throws Exception {
+        if (args.length < 3) { System.out.println("ERROR: --sweep expects a frames file and a program"); System.exit(1); }
+        int jobs = Runtime.getRuntime().availableProcessors();
+        long maxIterations = 0;
+        long timeout = 0;
+        File lib = null;
+        String file = null;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--jobs") && i + 1 < args.length) jobs = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--max-iterations") && i + 1 < args.length) maxIterations = Long.parseLong(args[++i]);
+            else if (args[i].equals("--timeout") && i + 1 < args.length) timeout = Long.parseLong(args[++i]);
+            else if (args[i].equals("--lib") && i + 1 < args.length) lib = new File(args[++i]);
+            else file = args[i];
+        }
+
+        double[] inits = null;
+        try {
+            inits = frames(args[1], Files.readAllLines(Path.of(args[1])));
+        } catch (IllegalArgumentException e) {
+            System.out.println("ERROR: " + e.getMessage());
+            System.exit(1);
+        }
+
+        Engine engine = new Engine();
+        engine.setBudget(maxIterations, timeout, 0);
+        if (lib != null) engine.setLibrary(lib, 256);
+        Engine.CompileResult compiled = engine.compile(new File(file));
+        if (!compiled.isOk()) { System.out.println(compiled.getDiagnostics().get(0)); System.exit(1); }
+        Sweep sweep = new Sweep(engine, jobs);
+        Sweep.Result result = sweep.run(compiled, inits);
+        sweep.close();
+
+        StringBuilder out = new StringBuilder();
+        for (char c = 'A'; c <= 'Z'; c++) out.append(c).append(',');
+        out.append("error\n");
+        for (int frame = 0; frame < result.getFrameCount(); frame++) {
+            for (char c = 'A'; c <= 'Z'; c++) out.append(Environment.format(result.getVar(frame, c))).append(',');
+            if (result.getError(frame) != null) out.append(result.getError(frame).toString().replace(',', ';'));
+            out.append('\n');
+        }
+        System.out.print(out);
+    }
+
+    /**
+     * The starting variables of every frame in a sweep's CSV, skipping blank
+     * lines. Fails naming the line of anything that isn't a header of single
+     * variables A-Z followed by rows of one number per variable
+     */
+    private static double[] frames(String fileName, List<String> lines) {
+        int first = 0;
+        while (first < lines.size() && lines.get(first).isBlank()) first++;
+        if (first == lines.size()) throw new IllegalArgumentException(fileName + " has no header");
+        String[] header = lines.get(first).split(",", -1);
+        int[] columns = new int[header.length];
+        boolean[] seen = new boolean[Sweep.VARS];
+        for (int i = 0; i < header.length; i++) {
+            String name = header[i].trim();
+            if (!name.matches("[A-Z]")) throw new IllegalArgumentException(fileName + ":" + (first + 1) + ": column " + (i + 1) + " must be a variable A-Z, not \"" + name + "\"");
+            columns[i] = name.charAt(0) - 'A';
+            if (seen[columns[i]]) throw new IllegalArgumentException(fileName + ":" + (first + 1) + ": " + name + " is named twice");
+            seen[columns[i]] = true;
+        }
+
+        List<String> rows = new ArrayList<>();
+        List<Integer> lineNumbers = new ArrayList<>();
+        for (int line = first + 1; line < lines.size(); line++) {
+            if (lines.get(line).isBlank()) continue;
+            rows.add(lines.get(line));
+            lineNumbers.add(line + 1);
+        }
+        double[] inits = new double[rows.size() * Sweep.VARS];
+        for (int row = 0; row < rows.size(); row++) {
+            String[] values = rows.get(row).split(",", -1);
+            String at = fileName + ":" + lineNumbers.get(row) + ": ";
+            if (values.length != header.length) throw new IllegalArgumentException(at + "expects " + header.length + " values, got " + values.length);
+            for (int i = 0; i < header.length; i++) {
+                try {
+                    inits[row * Sweep.VARS + columns[i]] = Double.parseDouble(values[i].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(at + "\"" + values[i].trim() + "\" is not a number");
+                }
+            }
+        }
+        return inits;
+    }
+
+    /**
+     * CasioBasic --suspend MS SNAPSHOT [--lib DIR] FILE
+     * CasioBasic --resume SNAPSHOT [--suspend MS SNAPSHOT] [--lib DIR] FILE
+     *
+     * Runs the program (from the start, or from a snapshot) and, after MS
+     * milliseconds, suspends it at its next loop iteration and saves it
+     */
+    private static void snapshot(String[] args) throws Exception {
+        Path from = null, to = null;
+        long after = 0;
+        File lib = null;
+        String file = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--resume") && i + 1 < args.length) from = Path.of(args[++i]);
+            else if (args[i].equals("--suspend") && i + 2 < args.length) {
+                after = Long.parseLong(args[++i]);
+                to = Path.of(args[++i]);
+            }
+            else if (args[i].equals("--lib") && i + 1 < args.length) lib = new File(args[++i]);
+            else file = args[i];
+        }
+        if (file == null) { System.out.println("ERROR: expected a program"); System.exit(1); }
+
+        Engine engine = new Engine();
+        if (lib != null) engine.setLibrary(lib, 256);
+        Engine.CompileResult compiled = engine.compile(new File(file));
+        if (!compiled.isOk()) { System.out.println(compiled.getDiagnostics().get(0)); System.exit(1); }
+        Environment env = new Environment();
+        if (from != null) Snapshot.restore(compiled, Files.readAllBytes(from), env);
+        Thread timer = null;
+        if (to != null) {
+            long millis = after;
+            timer = new Thread(() -> {
+                try {
+                    Thread.sleep(millis);
+                    env.requestSuspend();
+                } catch (InterruptedException e) {}
+            });
+            timer.setDaemon(true);
+            timer.start();
+        }
+        Engine.RunResult result = engine.run(compiled, env);
+        if (timer != null) timer.interrupt();
+        System.out.print(env.getDisplay());
+        for (Diagnostic diagnostic : result.getDiagnostics()) System.out.println(diagnostic);
+        if (env.isSuspended()) {
+            byte[] snapshot = Snapshot.capture(compiled, env);
+            Files.write(to, snapshot);
+            System.out.println("Suspended, " + snapshot.length + " byte snapshot saved to " + to);
+        }
+        if (!result.isOk()) System.exit(1);
+    }
+
+    /**
+     * CasioBasic --generate [--seed N] [--lines N] [--depth N] [--expr N] [--ops OPERATORS] [--vars N] [--locate SHARE]
+     *
+     * Prints a random program, the same one for the same seed and settings
+     */
+    private static void generate(String[] args) throws Exception {
+        long seed = 0;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--seed")) seed = Long.parseLong(args[i + 1]);
+        }
+        Generator generator = new Generator(seed);
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--lines")) generator.setLines(Integer.parseInt(args[i + 1]));
+            else if (args[i].equals("--depth")) generator.setMaxDepth(Integer.parseInt(args[i + 1]));
+            else if (args[i].equals("--expr")) generator.setExpressionLength(Integer.parseInt(args[i + 1]));
+            else if (args[i].equals("--ops")) generator.setOperators(args[i + 1]);
+            else if (args[i].equals("--vars")) generator.setVariables(Integer.parseInt(args[i + 1]));
+            else if (args[i].equals("--locate")) generator.setLocateDensity(Double.parseDouble(args[i + 1]));
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        generator.generate(out);
+        out.flush();
+    }
+
+    /**
+     * CasioBasic --play FILE [FRAME]
+     */
+    private static void play(String[] args) throws Exception {
+        if (args.length < 2) { System.out.println("ERROR: --play expects a recording"); System.exit(1); }
+        try (FramePlayer player = new FramePlayer(Path.of(args[1]))) {
+            // A program that failed before drawing anything records no frames
+            if (player.getFrameCount() == 0) { System.out.println("No frames in " + args[1]); return; }
+            int frame = args.length > 2 ? Integer.parseInt(args[2]) : player.getFrameCount() - 1;
+            if (frame < 0 || frame >= player.getFrameCount()) { System.out.println("ERROR: " + args[1] + " has frames 0 to " + (player.getFrameCount() - 1)); System.exit(1); }
+            System.out.println("Frame " + frame + " of " + player.getFrameCount());
+            System.out.print(player.render(frame));
+        } catch (IOException e) {
+            System.out.println("ERROR: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * CasioBasic --show-trace FILE [EVENTS]
+     */
+    private static void showTrace(String[] args) throws Exception {
+        if (args.length < 2) { System.out.println("ERROR: --show-trace expects a trace"); System.exit(1); }
+        int limit = args.length > 2 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(Path.of(args[1])))) {
+            Tracer.print(in, limit, System.out);
+        }
+    }
+}
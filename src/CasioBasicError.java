@@ -0,0 +1,24 @@
+/**
+ * Raised by the lexer, parser and interpreter when a program is invalid or
+ * fails while running. Carries the location of the offending code if known
+ */
+public class CasioBasicError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private TokenLocation loc;
+
+    CasioBasicError(String message) { super(message); }
+
+    CasioBasicError(TokenLocation loc, String message) {
+        super(message);
+        this.loc = loc;
+    }
+
+    public TokenLocation getLoc() { return loc; }
+    void setLoc(TokenLocation loc) { this.loc = loc; }
+
+    public String toString() {
+        if (loc == null) return "ERROR: " + getMessage();
+        return "ERROR: " + loc + "  " + getMessage();
+    }
+}
@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+/**
+ * A link over a loopback TCP or Unix domain socket, standing in for the cable
+ * between two emulated calculators.
+ *
+ * The channel is non-blocking and waits on a selector. Every value is one
+ * length-prefixed frame:
+ *
+ *     int length, byte kind, payload
+ *
+ * where the payload is a double (NUMBER), an int count and that many doubles
+ * (LIST), int rows, int columns and the doubles row by row (MATRIX), or an
+ * int count and that many chars (STRING). Frames are collected in a direct
+ * buffer and written together when it fills up, before waiting to receive,
+ * and on close, so a program sending in a loop makes one write per 64KB
+ * instead of one per value
+ */
+public class ChannelLink implements Link {
+    static final int BUFFER = 1 << 16;
+    static final byte NUMBER = 0;
+    static final byte LIST = 1;
+    static final byte MATRIX = 2;
+    static final byte STRING = 3;
+
+    private SocketChannel channel;
+    private Selector selector;
+    private SelectionKey key;
+    // Frames waiting to be written, in write mode
+    private ByteBuffer out = ByteBuffer.allocateDirect(BUFFER);
+    // Bytes read but not yet decoded, in write mode
+    private ByteBuffer in = ByteBuffer.allocateDirect(BUFFER);
+
+    private ChannelLink(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        // Frames are batched here, so Nagle's algorithm would only add delay
+        if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.key = channel.register(selector, 0);
+    }
+
+    static ChannelLink connect(SocketAddress address) throws IOException {
+        return new ChannelLink(SocketChannel.open(address));
+    }
+
+    /**
+     * Waits for the other calculator to connect
+     */
+    static ChannelLink listen(SocketAddress address) throws IOException {
+        ServerSocketChannel server;
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        }
+        else server = ServerSocketChannel.open();
+        try (server) {
+            server.bind(address);
+            return new ChannelLink(server.accept());
+        } finally {
+            if (address instanceof UnixDomainSocketAddress) Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+        }
+    }
+
+    public void send(Object value) throws IOException {
+        int length = 1 + payloadSize(value);
+        if (out.remaining() < 4 + length) {
+            flush();
+            if (out.capacity() < 4 + length) out = ByteBuffer.allocateDirect(Integer.highestOneBit(4 + length) << 1);
+        }
+        out.putInt(length);
+        if (value instanceof Double) out.put(NUMBER).putDouble((Double) value);
+        else if (value instanceof double[]) {
+            double[] list = (double[]) value;
+            out.put(LIST).putInt(list.length);
+            putDoubles(list);
+        }
+        else if (value instanceof Matrix) {
+            Matrix matrix = (Matrix) value;
+            out.put(MATRIX).putInt(matrix.getRows()).putInt(matrix.getCols());
+            putDoubles(matrix.getData());
+        }
+        else {
+            CharSequence text = (CharSequence) value;
+            out.put(STRING).putInt(text.length());
+            for (int i = 0; i < text.length(); i++) out.putChar(text.charAt(i));
+        }
+    }
+
+    private static int payloadSize(Object value) {
+        if (value instanceof Double) return 8;
+        if (value instanceof double[]) return 4 + 8 * ((double[]) value).length;
+        if (value instanceof Matrix) return 8 + 8 * ((Matrix) value).getData().length;
+        return 4 + 2 * ((CharSequence) value).length();
+    }
+
+    private void putDoubles(double[] values) {
+        // A bulk copy through a view, then step past what it wrote
+        out.asDoubleBuffer().put(values);
+        out.position(out.position() + 8 * values.length);
+    }
+
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            if (channel.write(out) == 0) await(SelectionKey.OP_WRITE, 0);
+        }
+        out.clear();
+    }
+
+    public Object poll(long millis) throws IOException {
+        flush();
+        long deadline = System.nanoTime() + millis * 1_000_000;
+        while (true) {
+            Object value = decode();
+            if (value != null) return value;
+            if (!in.hasRemaining()) grow(in.capacity() * 2);
+            int read = channel.read(in);
+            if (read < 0) throw new IOException("the other calculator disconnected");
+            if (read > 0) continue;
+            long left = (deadline - System.nanoTime()) / 1_000_000;
+            if (left <= 0) return null;
+            await(SelectionKey.OP_READ, left);
+        }
+    }
+
+    /**
+     * The next complete frame in `in`, or null
+     */
+    private Object decode() {
+        in.flip();
+        try {
+            if (in.remaining() < 4) return null;
+            int length = in.getInt(in.position());
+            if (in.capacity() < 4 + length) {
+                in.compact();
+                grow(4 + length);
+                in.flip();
+                return null;
+            }
+            if (in.remaining() < 4 + length) return null;
+            in.getInt();
+            byte kind = in.get();
+            if (kind == NUMBER) return in.getDouble();
+            if (kind == LIST) return getDoubles(in.getInt());
+            if (kind == MATRIX) {
+                int rows = in.getInt(), cols = in.getInt();
+                return new Matrix(rows, cols, getDoubles(rows * cols));
+            }
+            char[] chars = new char[in.getInt()];
+            in.asCharBuffer().get(chars);
+            in.position(in.position() + 2 * chars.length);
+            return Rope.of(new String(chars));
+        } finally {
+            in.compact();
+        }
+    }
+
+    private double[] getDoubles(int count) {
+        double[] values = new double[count];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + 8 * count);
+        return values;
+    }
+
+    /**
+     * Makes room for a frame bigger than the read buffer. `in` stays in
+     * write mode
+     */
+    private void grow(int size) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Integer.highestOneBit(size) << 1);
+        in.flip();
+        bigger.put(in);
+        in = bigger;
+    }
+
+    private void await(int op, long millis) throws IOException {
+        key.interestOps(op);
+        selector.select(millis);
+        selector.selectedKeys().clear();
+        key.interestOps(0);
+    }
+
+    public void close() throws IOException {
+        try {
+            if (channel.isOpen()) flush();
+        } finally {
+            selector.close();
+            channel.close();
+        }
+    }
+}
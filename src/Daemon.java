@@ -0,0 +1,157 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps a warm engine resident and runs programs sent to it over a loopback
+ * or Unix domain socket, so scripted runs don't pay for JVM startup and a
+ * cold JIT on every program.
+ *
+ * One request per connection. The client sends a header line followed by
+ * the program's source, then closes its side of the connection:
+ *
+ *     RUN <file name>\n<source>
+ *     CHECK <file name>\n<source>
+ *
+ * The daemon answers with `OK` or `FAIL` on the first line, followed by the
+ * program's output and any diagnostics. Any tool that can half-close a
+ * socket works as a client, e.g. `(echo RUN a.cb; cat a.cb) | nc -N localhost 7421`
+ */
+public class Daemon {
+    static final int DEFAULT_PORT = 7421;
+    // Milliseconds a program may run unless the daemon is started with a budget of its own
+    static final long DEFAULT_TIMEOUT = 10_000;
+
+    private Engine engine;
+    private ServerSocketChannel server;
+    private ExecutorService workers;
+
+    Daemon(Engine engine, SocketAddress address) throws IOException {
+        this.engine = engine;
+        if (address instanceof UnixDomainSocketAddress) {
+            // A stale socket file from a previous daemon would make bind() fail
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        }
+        else this.server = ServerSocketChannel.open();
+        server.bind(address);
+        this.workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Either the Unix domain socket at `socketPath`, or `port` on the loopback
+     * interface if no path is given
+     */
+    static SocketAddress address(String socketPath, int port) {
+        if (socketPath != null) return UnixDomainSocketAddress.of(Path.of(socketPath));
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Accepts connections until the daemon is closed
+     */
+    public void serve() throws IOException {
+        while (server.isOpen()) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                if (!server.isOpen()) break;
+                throw e;
+            }
+            workers.submit(() -> handle(client));
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+        workers.shutdownNow();
+    }
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            InputStream in = Channels.newInputStream(client);
+            OutputStream out = Channels.newOutputStream(client);
+            String header = readLine(in);
+            String source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            String response;
+            try {
+                response = respond(header, source);
+            } catch (RuntimeException e) {
+                // A bug, but the client should still hear about it
+                response = "FAIL\nERROR: Internal error: " + e + "\n";
+            } catch (StackOverflowError e) {
+                response = "FAIL\nERROR: Stack ERROR: program nests too deeply\n";
+            }
+            out.write(response.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            // The client went away, there is no one left to tell
+        }
+    }
+
+    private String respond(String header, String source) {
+        int space = header.indexOf(' ');
+        String command = space < 0 ? header : header.substring(0, space);
+        String fileName = space < 0 ? "<daemon>" : header.substring(space + 1);
+
+        if (!command.equals("RUN") && !command.equals("CHECK")) return "FAIL\nERROR: Unknown command `" + command + "`\n";
+        Engine.CompileResult compiled = engine.compile(fileName, source);
+        if (!compiled.isOk() || command.equals("CHECK")) return response(compiled.isOk(), "", compiled.getDiagnostics());
+
+        Engine.RunResult ran = engine.run(compiled);
+        return response(ran.isOk(), ran.getOutput(), ran.getDiagnostics());
+    }
+
+    private static String response(boolean ok, String output, Iterable<Diagnostic> diagnostics) {
+        String out = (ok ? "OK" : "FAIL") + "\n" + output;
+        for (Diagnostic diagnostic : diagnostics) out += diagnostic + "\n";
+        return out;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') line.write(b);
+        return line.toString(StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Sends one file to a running daemon, copies the response to `out` and
+     * returns whether the program succeeded
+     */
+    static boolean request(SocketAddress address, String command, Path file, OutputStream out) throws IOException {
+        byte[] source = Files.readAllBytes(file);
+        SocketChannel channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                : SocketChannel.open();
+        try (channel) {
+            channel.connect(address);
+            OutputStream request = Channels.newOutputStream(channel);
+            request.write((command + " " + file + "\n").getBytes(StandardCharsets.UTF_8));
+            request.write(source);
+            request.flush();
+            channel.shutdownOutput();
+
+            InputStream in = Channels.newInputStream(channel);
+            boolean ok = readLine(in).equals("OK");
+            in.transferTo(out);
+            out.flush();
+            return ok;
+        }
+    }
+}
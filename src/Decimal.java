@@ -0,0 +1,90 @@
+import java.math.BigDecimal;
+
+/**
+ * The calculator's number rules on top of `double`
+ *
+ * Results keep 15 significant digits like the calculator does internally, so
+ * 0.1 + 0.2 is 0.3 and 1 / 3 * 3 is 1. Anything at 1e100 or beyond is a
+ * Math ERROR, and anything smaller than 1e-99 becomes 0. Rounding works on
+ * primitives and a power of ten table, so arithmetic never allocates; only
+ * format() builds strings, for the screen
+ */
+public final class Decimal {
+    static final int DIGITS = 15;
+    static final int DISPLAY_DIGITS = 10;
+    static final double MAX = 1e100;
+    static final double MIN = 1e-99;
+
+    // POW10[i] is 10^(i - OFFSET), as close as a double gets
+    private static final int OFFSET = 130;
+    private static final double[] POW10 = new double[2 * OFFSET + 1];
+    static {
+        for (int i = 0; i < POW10.length; i++) POW10[i] = Double.parseDouble("1e" + (i - OFFSET));
+    }
+
+    private Decimal() {}
+
+    static double pow10(int exponent) { return POW10[exponent + OFFSET]; }
+
+    /**
+     * floor(log10(abs)) for a positive, finite abs
+     */
+    static int exponent(double abs) {
+        // log10(2) times the binary exponent is off by at most one
+        int e = (int) Math.floor(Math.getExponent(abs) * 0.30102999566398120);
+        if (abs >= pow10(e + 1)) return e + 1;
+        if (abs < pow10(e)) return e - 1;
+        return e;
+    }
+
+    public static double round(double value) { return round(value, DIGITS); }
+
+    static double round(double value, int digits) {
+        double abs = Math.abs(value);
+        if (abs < 1e15 && value == Math.rint(value)) return value;
+        if (!(abs < MAX)) throw new CasioBasicError(value != value ? "Math ERROR: undefined result" : "Math ERROR: overflow");
+        if (abs < MIN) return 0;
+        int scale = digits - 1 - exponent(abs);
+        if (scale >= 0) return Math.rint(value * pow10(scale)) / pow10(scale);
+        return Math.rint(value / pow10(-scale)) * pow10(-scale);
+    }
+
+    /**
+     * round() that gives NaN instead of a Math ERROR
+     */
+    static double roundQuiet(double value) {
+        if (!(Math.abs(value) < MAX)) return Double.NaN;
+        return round(value, DIGITS);
+    }
+
+    /**
+     * Rounds values[from, to) in place
+     */
+    static void round(double[] values, int from, int to) {
+        for (int i = from; i < to; i++) values[i] = round(values[i], DIGITS);
+    }
+
+    /**
+     * The value as the screen shows it: 10 significant digits, switching to
+     * `E` notation below 0.01 and from 1e10
+     */
+    public static String format(double value) {
+        if (value == 0) return "0";
+        value = round(value, DISPLAY_DIGITS);
+        double abs = Math.abs(value);
+        if (abs >= 0.01 && abs < 1e10) return plain(value);
+        int e = exponent(abs);
+        double mantissa = round(value / pow10(e), DISPLAY_DIGITS);
+        // Rounding can carry the mantissa up to 10
+        if (Math.abs(mantissa) >= 10) {
+            mantissa /= 10;
+            e++;
+        }
+        return plain(mantissa) + "E" + (e < 0 ? "-" : "+") + (Math.abs(e) < 10 ? "0" : "") + Math.abs(e);
+    }
+
+    private static String plain(double value) {
+        if (value == Math.rint(value)) return (long) value + "";
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * A problem found while compiling or running a program
+ */
+public class Diagnostic {
+    enum Stage { COMPILE, RUN }
+
+    private Stage stage;
+    private TokenLocation loc;
+    private String message;
+
+    Diagnostic(Stage stage, TokenLocation loc, String message) {
+        this.stage = stage;
+        this.loc = loc;
+        this.message = message;
+    }
+
+    Diagnostic(Stage stage, CasioBasicError error) { this(stage, error.getLoc(), error.getMessage()); }
+
+    public Stage getStage() { return stage; }
+    public TokenLocation getLoc() { return loc; }
+    public String getMessage() { return message; }
+
+    public String toString() {
+        if (loc == null) return "ERROR: " + message;
+        return "ERROR: " + loc + "  " + message;
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * The calculator's 21x7 text screen. Writes only touch the in-memory cells
+ * and remember which ones changed; `flush()` hands just the changed cells
+ * to a sink once per frame, so programs that redraw with `Locate` in a loop
+ * don't do I/O per character
+ */
+public class Display {
+    static final int WIDTH = 21;
+    static final int HEIGHT = 7;
+    static final int SIZE = WIDTH * HEIGHT;
+
+    private char[] cells = new char[SIZE];
+    // What the sink was last sent, so cells written over and back again aren't resent
+    private char[] shown = new char[SIZE];
+    // One bit per cell, set when the cell changed since the last flush
+    private long[] dirty = new long[(SIZE + 63) / 64];
+    private int[] changed = new int[SIZE];
+    // The row the next printed line goes to
+    private int cursorRow;
+
+    Display() {
+        java.util.Arrays.fill(cells, ' ');
+        // Whatever the sink showed before is unknown, so the first frame draws everything
+        java.util.Arrays.fill(dirty, -1L);
+    }
+
+    /**
+     * Writes text starting at column x and row y (both 1 based). Text past
+     * the right edge is cut off, as on the calculator
+     */
+    public void locate(int x, int y, CharSequence text) {
+        if (x < 1 || x > WIDTH || y < 1 || y > HEIGHT) throw new CasioBasicError("Argument ERROR: `Locate` position out of range");
+        int index = (y - 1) * WIDTH + x - 1;
+        int end = Math.min(text.length(), WIDTH - x + 1);
+        for (int i = 0; i < end; i++) set(index + i, text.charAt(i));
+    }
+
+    /**
+     * Writes text on the next line, wrapping long text and scrolling the
+     * screen up once the last line is used
+     */
+    public void print(CharSequence text) {
+        int start = 0;
+        do {
+            if (cursorRow == HEIGHT) scroll();
+            int end = Math.min(text.length(), start + WIDTH);
+            int row = cursorRow * WIDTH;
+            for (int i = 0; i < WIDTH; i++) set(row + i, start + i < end ? text.charAt(start + i) : ' ');
+            cursorRow ++;
+            start = end;
+        } while (start < text.length());
+    }
+
+    public void clear() {
+        for (int i = 0; i < SIZE; i++) set(i, ' ');
+        cursorRow = 0;
+    }
+
+    public char get(int x, int y) { return cells[(y - 1) * WIDTH + x - 1]; }
+
+    private void scroll() {
+        for (int i = 0; i < SIZE; i++) set(i, i + WIDTH < SIZE ? cells[i + WIDTH] : ' ');
+        cursorRow --;
+    }
+
+    private void set(int index, char c) {
+        if (cells[index] == c) return;
+        cells[index] = c;
+        dirty[index >> 6] |= 1L << index;
+    }
+
+    /**
+     * Sends the cells that differ from the last flush to the sink, in screen
+     * order. Does nothing if no cell changed
+     */
+    public void flush(DisplaySink sink) {
+        int count = 0;
+        for (int word = 0; word < dirty.length; word++) {
+            long bits = dirty[word];
+            while (bits != 0) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                if (index < SIZE && cells[index] != shown[index]) {
+                    shown[index] = cells[index];
+                    changed[count++] = index;
+                }
+                bits &= bits - 1;
+            }
+            dirty[word] = 0;
+        }
+        if (count > 0) sink.frame(cells, changed, count);
+    }
+
+    void save(java.io.DataOutput out) throws java.io.IOException {
+        for (char c : cells) out.writeChar(c);
+        out.writeByte(cursorRow);
+    }
+
+    /**
+     * Reads what save() wrote. The next flush draws the whole screen
+     */
+    void load(java.io.DataInput in) throws java.io.IOException {
+        for (int i = 0; i < SIZE; i++) cells[i] = in.readChar();
+        cursorRow = in.readByte();
+        java.util.Arrays.fill(dirty, -1L);
+    }
+
+    /**
+     * The screen as text, without trailing spaces or trailing empty rows
+     */
+    public String toString() {
+        String out = "";
+        int blankRows = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            int end = WIDTH;
+            while (end > 0 && cells[y * WIDTH + end - 1] == ' ') end --;
+            if (end == 0) { blankRows ++; continue; }
+            for (; blankRows > 0; blankRows--) out += "\n";
+            out += new String(cells, y * WIDTH, end) + "\n";
+        }
+        return out;
+    }
+}
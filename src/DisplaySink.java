@@ -0,0 +1,11 @@
+/**
+ * Receives the changes to a display, one call per frame
+ */
+public interface DisplaySink {
+    /**
+     * `changed` holds the indices (row * WIDTH + column, 0 based) of the
+     * first `count` cells that changed, in ascending order. Both arrays are
+     * reused by the display, so they must not be kept after returning
+     */
+    public void frame(char[] cells, int[] changed, int count);
+}
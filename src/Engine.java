@@ -0,0 +1,193 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compiles and runs programs without touching stdout or exiting the JVM, so
+ * it can be embedded in a long lived host. One engine is meant to be shared
+ * by every thread of the host: compiled programs are immutable and cached by
+ * their source, and each run gets a fresh environment
+ */
+public class Engine {
+    private LruCache<String, CompileResult> cache;
+    // Where `Prog` finds subprograms, if anywhere
+    private ProgramLibrary library;
+    private EngineMetrics metrics = new EngineMetrics(this);
+
+    // Limits given to every run that doesn't bring its own budget, 0 is unlimited
+    private long maxIterations;
+    private long maxMillis;
+    private long maxBytes;
+
+    Engine() { this(1024); }
+
+    Engine(int cacheSize) { this.cache = new LruCache<>(cacheSize); }
+
+    /**
+     * The outcome of compiling one program. `getProgram()` is null if there
+     * were any diagnostics
+     */
+    static class CompileResult {
+        private String fileName;
+        private ASTNode program;
+        private int tokenCount;
+        private List<Diagnostic> diagnostics;
+
+        CompileResult(String fileName, ASTNode program, int tokenCount, List<Diagnostic> diagnostics) {
+            this.fileName = fileName;
+            this.program = program;
+            this.tokenCount = tokenCount;
+            this.diagnostics = Collections.unmodifiableList(diagnostics);
+        }
+
+        public String getFileName() { return fileName; }
+        public ASTNode getProgram() { return program; }
+        public int getTokenCount() { return tokenCount; }
+        public List<Diagnostic> getDiagnostics() { return diagnostics; }
+        public boolean isOk() { return diagnostics.isEmpty(); }
+    }
+
+    /**
+     * The outcome of running one program: the screen it left behind (when
+     * the engine captured it) and the final value of the variables A-Z
+     */
+    static class RunResult {
+        private String output;
+        private double[] vars;
+        private List<Diagnostic> diagnostics;
+
+        RunResult(String output, double[] vars, List<Diagnostic> diagnostics) {
+            this.output = output;
+            this.vars = vars;
+            this.diagnostics = Collections.unmodifiableList(diagnostics);
+        }
+
+        public String getOutput() { return output; }
+        public double getVar(char varName) { return vars[varName - 'A']; }
+        public List<Diagnostic> getDiagnostics() { return diagnostics; }
+        public boolean isOk() { return diagnostics.isEmpty(); }
+    }
+
+    public CompileResult compile(File file) {
+        String source;
+        try {
+            source = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            List<Diagnostic> diagnostics = new ArrayList<>();
+            diagnostics.add(new Diagnostic(Diagnostic.Stage.COMPILE, null, "Invalid file \"" + file + "\""));
+            return new CompileResult(file.toString(), null, 0, diagnostics);
+        }
+        return compile(file.toString(), source);
+    }
+
+    public CompileResult compile(String fileName, String source) {
+        // Keyed on the name as well, as locations in the tree refer to it
+        String key = fileName + '\0' + source;
+        CompileResult result = cache.get(key);
+        if (result != null) return result;
+
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        ASTNode program = null;
+        int tokenCount = 0;
+        try {
+            long start = System.nanoTime();
+            Lexer lexer = new Lexer(fileName, source);
+            tokenCount = lexer.getTokens().size();
+            long lexed = System.nanoTime();
+            metrics.lexed(tokenCount, lexed - start);
+            Parser parser = new Parser(lexer.getTokens());
+            program = parser.getRoot();
+            metrics.parsed(parser.getStatementCount(), System.nanoTime() - lexed);
+        } catch (CasioBasicError e) {
+            diagnostics.add(new Diagnostic(Diagnostic.Stage.COMPILE, e));
+        } catch (StackOverflowError e) {
+            // The parser recurses once per level of nesting
+            diagnostics.add(new Diagnostic(Diagnostic.Stage.COMPILE, null, "Stack ERROR: program nests too deeply"));
+        }
+        result = new CompileResult(fileName, program, tokenCount, diagnostics);
+        cache.put(key, result);
+        Events.compiled.increment();
+        metrics.compiled.increment();
+        return result;
+    }
+
+    public RunResult run(CompileResult compiled) {
+        Environment env = new Environment();
+        RunResult result = run(compiled, env);
+        // Without a terminal to draw on, the output is what's left on the screen
+        return new RunResult(env.getDisplay().toString(), result.vars, result.diagnostics);
+    }
+
+    public RunResult run(String fileName, String source) { return run(compile(fileName, source)); }
+
+    /**
+     * Lets programs call the `.cb` files in `dir` with `Prog`, keeping up to
+     * `capacity` of them compiled
+     */
+    public void setLibrary(File dir, int capacity) { this.library = new ProgramLibrary(this, dir, capacity); }
+
+    public ProgramLibrary getLibrary() { return library; }
+
+    public void setBudget(long maxIterations, long maxMillis, long maxBytes) {
+        this.maxIterations = maxIterations;
+        this.maxMillis = maxMillis;
+        this.maxBytes = maxBytes;
+    }
+
+    public Budget newBudget() { return new Budget(maxIterations, maxMillis, maxBytes); }
+
+    /**
+     * Runs the program in an environment set up by the caller. The output is
+     * drawn on the environment's display sink, so the result's output is empty
+     */
+    public RunResult run(CompileResult compiled, Environment env) {
+        List<Diagnostic> diagnostics = new ArrayList<>(compiled.getDiagnostics());
+        if (!compiled.isOk()) return new RunResult("", env.getVars(), diagnostics);
+        if (env.getBudget() == null && (maxIterations > 0 || maxMillis > 0 || maxBytes > 0)) env.setBudget(newBudget());
+        if (env.getLibrary() == null) env.setLibrary(library);
+        Events.Execute event = new Events.Execute();
+        Events.started.increment();
+        metrics.activeRuns.increment();
+        long start = System.nanoTime();
+        event.begin();
+        try {
+            compiled.getProgram().evaluate(env);
+        } catch (CasioBasicError e) {
+            if (e instanceof Budget.ExceededError) metrics.interrupted.increment();
+            diagnostics.add(new Diagnostic(Diagnostic.Stage.RUN, e));
+        } catch (StackOverflowError e) {
+            diagnostics.add(new Diagnostic(Diagnostic.Stage.RUN, null, "Stack ERROR: program nests too deeply"));
+        } finally {
+            event.end();
+            Events.finished.increment();
+            metrics.activeRuns.decrement();
+            metrics.runs.increment();
+            metrics.runLatency.record(System.nanoTime() - start);
+        }
+        if (!diagnostics.isEmpty()) {
+            Events.failed.increment();
+            metrics.failed.increment();
+        }
+        if (event.shouldCommit()) {
+            event.file = compiled.getFileName();
+            event.tokens = compiled.getTokenCount();
+            event.outcome = env.isSuspended() ? "suspended" : diagnostics.isEmpty() ? "ok" : diagnostics.get(0).toString();
+            event.commit();
+        }
+        env.flush();
+        return new RunResult("", env.getVars(), diagnostics);
+    }
+
+    /**
+     * Counters for this engine, see `EngineMetrics.register()` to show them over JMX
+     */
+    public EngineMetrics getMetrics() { return metrics; }
+
+    public int getCacheSize() { return cache.size(); }
+    public long getCacheHits() { return cache.getHits(); }
+    public long getCacheMisses() { return cache.getMisses(); }
+}
@@ -0,0 +1,39 @@
+/**
+ * What an engine shows over JMX, see EngineMetrics
+ */
+public interface EngineMXBean {
+    /**
+     * Programs lexed and parsed, not counting compile cache hits
+     */
+    public long getProgramsCompiled();
+    public long getProgramsRun();
+    public long getRunsFailed();
+
+    /**
+     * Runs stopped for going over their iteration, time or memory budget,
+     * or cancelled
+     */
+    public long getBudgetInterrupts();
+
+    public long getActiveRuns();
+    public long getActiveSessions();
+
+    public long getTokensLexed();
+
+    /**
+     * Tokens lexed per second spent lexing, the lexer's own speed
+     */
+    public double getTokensPerSecond();
+
+    /**
+     * Statements in the syntax trees built so far
+     */
+    public long getStatementsParsed();
+
+    public int getCacheSize();
+    public double getCacheHitRate();
+
+    public Histogram.Summary getLexLatency();
+    public Histogram.Summary getParseLatency();
+    public Histogram.Summary getRunLatency();
+}
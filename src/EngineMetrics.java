@@ -0,0 +1,80 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Live counters for one engine, for watching a host's throughput and
+ * saturation with any JMX console
+ *
+ * Every thread that compiles or runs bumps the same counters, so they are
+ * `LongAdder`s: each thread increments its own cell and only reading the
+ * value sums them. Nothing here is touched per statement, only per compile,
+ * run or session
+ */
+public class EngineMetrics implements EngineMXBean {
+    private Engine engine;
+
+    final LongAdder compiled = new LongAdder();
+    final LongAdder runs = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder interrupted = new LongAdder();
+    final LongAdder activeRuns = new LongAdder();
+    final LongAdder activeSessions = new LongAdder();
+    final LongAdder tokens = new LongAdder();
+    final LongAdder lexNanos = new LongAdder();
+    final LongAdder statements = new LongAdder();
+    final Histogram lexLatency = new Histogram();
+    final Histogram parseLatency = new Histogram();
+    final Histogram runLatency = new Histogram();
+
+    EngineMetrics(Engine engine) { this.engine = engine; }
+
+    /**
+     * Registers these metrics with the platform MBean server as
+     * `casiobasic:type=Engine,name=<name>`
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("casiobasic:type=Engine,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) { throw new IllegalStateException("Could not register engine metrics", e); }
+    }
+
+    void lexed(int tokenCount, long nanos) {
+        tokens.add(tokenCount);
+        lexNanos.add(nanos);
+        lexLatency.record(nanos);
+    }
+
+    void parsed(int statementCount, long nanos) {
+        statements.add(statementCount);
+        parseLatency.record(nanos);
+    }
+
+    public long getProgramsCompiled() { return compiled.sum(); }
+    public long getProgramsRun() { return runs.sum(); }
+    public long getRunsFailed() { return failed.sum(); }
+    public long getBudgetInterrupts() { return interrupted.sum(); }
+    public long getActiveRuns() { return activeRuns.sum(); }
+    public long getActiveSessions() { return activeSessions.sum(); }
+    public long getTokensLexed() { return tokens.sum(); }
+
+    public double getTokensPerSecond() {
+        long nanos = lexNanos.sum();
+        return nanos == 0 ? 0 : tokens.sum() * 1e9 / nanos;
+    }
+
+    public long getStatementsParsed() { return statements.sum(); }
+    public int getCacheSize() { return engine.getCacheSize(); }
+
+    public double getCacheHitRate() {
+        long hits = engine.getCacheHits(), lookups = hits + engine.getCacheMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public Histogram.Summary getLexLatency() { return lexLatency.summary(); }
+    public Histogram.Summary getParseLatency() { return parseLatency.summary(); }
+    public Histogram.Summary getRunLatency() { return runLatency.summary(); }
+}
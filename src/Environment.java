@@ -0,0 +1,458 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The state of a single running program. Every program gets its own
+ * environment, so programs can run side by side without sharing variables
+ * or screens
+ */
+public class Environment {
+    // What the interpreter should do after the current statement
+    static final int RUNNING = 0;
+    static final int GOTO = 1;
+    static final int SKIP = 2;
+    static final int RETURN = 3;
+    static final int BREAK = 4;
+    static final int STOP = 5;
+    // Stopped at a loop's back edge so the run can be snapshotted, see Snapshot
+    static final int SUSPEND = 6;
+
+    // What resumePoint() returns when the run isn't being resumed
+    static final int FRESH = -1;
+
+    // How deep `Prog` calls may nest, as on the calculator
+    static final int MAX_PROG_DEPTH = 10;
+
+    // Variables A-Z
+    private double[] vars = new double[26];
+    // List 1-26 and Mat A-Z, null until assigned
+    private double[][] lists = new double[26][];
+    private Matrix[] matrices = new Matrix[26];
+    // Str 1-20
+    private Rope[] strings = new Rope[20];
+    private Display display = new Display();
+    // The graph screen, created by the first graph command
+    private Graph graph;
+    // Where finished frames are drawn, if anywhere
+    private DisplaySink sink;
+    private KeySource keys;
+
+    private int control = RUNNING;
+    private int jumpLabel;
+
+    // The cable to another calculator, if any
+    private Link link;
+    private boolean comportOpen;
+
+    private ProgramLibrary library;
+    private int progDepth;
+
+    private Budget budget;
+    // Counts statements as they run, if anyone is looking
+    private Profiler profiler;
+    // Keeps the last statements and assignments, if anyone is looking
+    private Tracer tracer;
+    // Backward edges left until the budget is next checked
+    private long fuel = Long.MAX_VALUE;
+    private long granted = Long.MAX_VALUE;
+
+    // Set from any thread to suspend the run at its next back edge
+    private final AtomicBoolean suspendRequested = new AtomicBoolean();
+    // Where each node between the program and the suspended loop was, innermost first
+    private double[] path = new double[16];
+    private int pathLength;
+    // Keys pressed before a snapshot was taken, read before the key source
+    private int[] pendingKeys;
+    private int nextPendingKey;
+
+    public void setKeySource(KeySource keys) { this.keys = keys; }
+
+    public void setDisplaySink(DisplaySink sink) { this.sink = sink; }
+
+    public Display getDisplay() { return display; }
+
+    public Graph getGraph() {
+        if (graph == null) graph = new Graph();
+        return graph;
+    }
+
+    public boolean hasGraph() { return graph != null; }
+
+    public void setLink(Link link) { this.link = link; }
+
+    /**
+     * Send( always uses the link, Send38k only while the port is open
+     */
+    public void send(Object value, boolean comport) {
+        try {
+            link(comport).send(value);
+        } catch (java.io.IOException e) { throw new CasioBasicError("Com ERROR: " + e.getMessage()); }
+    }
+
+    /**
+     * Waits for the next value from the other calculator. The wait gives the
+     * budget a chance to stop the run every 100ms
+     */
+    public Object receive(boolean comport) {
+        Link link = link(comport);
+        try {
+            Object value;
+            while ((value = link.poll(100)) == null) {
+                if (budget != null) budget.check(0, null);
+            }
+            return value;
+        } catch (java.io.IOException e) { throw new CasioBasicError("Com ERROR: " + e.getMessage()); }
+    }
+
+    public void openComport() {
+        if (link == null) throw new CasioBasicError("Com ERROR: no cable connected");
+        comportOpen = true;
+    }
+
+    public void closeComport() {
+        if (!comportOpen) return;
+        try {
+            link.flush();
+        } catch (java.io.IOException e) { throw new CasioBasicError("Com ERROR: " + e.getMessage()); }
+        comportOpen = false;
+    }
+
+    private Link link(boolean comport) {
+        if (link == null) throw new CasioBasicError("Com ERROR: no cable connected");
+        if (comport && !comportOpen) throw new CasioBasicError("Com ERROR: the port isn't open, use OpenComport38k");
+        return link;
+    }
+
+    /**
+     * A copy for evaluating expressions on another thread. The variables are
+     * copied; lists, matrices and strings are shared, which is safe because
+     * expressions only read them
+     */
+    Environment scratch() {
+        Environment copy = new Environment();
+        copy.vars = vars.clone();
+        copy.lists = lists;
+        copy.matrices = matrices;
+        copy.strings = strings;
+        return copy;
+    }
+
+    public void setBudget(Budget budget) {
+        this.budget = budget;
+        budget.start();
+        this.fuel = this.granted = budget.check(0, null);
+    }
+
+    public Budget getBudget() { return budget; }
+
+    public void setProfiler(Profiler profiler) { this.profiler = profiler; }
+
+    public Profiler getProfiler() { return profiler; }
+
+    public void setTracer(Tracer tracer) { this.tracer = tracer; }
+
+    public Tracer getTracer() { return tracer; }
+
+    /**
+     * Called at the end of every loop iteration. Without a budget the fuel
+     * never runs out. This is also the only place a run is suspended, so
+     * a snapshot never lands in the middle of a statement
+     */
+    public void backEdge(TokenLocation loc) {
+        if (--fuel <= 0) fuel = granted = budget.check(granted, loc);
+        // Only taken with a compareAndSet, so it can't race withdrawSuspend()
+        if (suspendRequested.get() && suspendRequested.compareAndSet(true, false)) control = SUSPEND;
+    }
+
+    /**
+     * Suspends the run at its next back edge. Safe to call from any thread
+     */
+    public void requestSuspend() { suspendRequested.set(true); }
+
+    /**
+     * Takes back a suspend request the run hasn't acted on yet, e.g. as it
+     * is waiting in `Receive(` and won't reach a back edge for a while.
+     * Returns false if the run has already taken it and is suspending
+     */
+    public boolean withdrawSuspend() { return suspendRequested.compareAndSet(true, false); }
+
+    public boolean isSuspended() { return control == SUSPEND; }
+
+    /**
+     * Called by each node a suspended run unwinds through, with where the
+     * node was and anything it needs to carry on from there
+     */
+    void suspend(int at, double... state) {
+        if (pathLength + state.length + 1 > path.length) path = java.util.Arrays.copyOf(path, Math.max(path.length * 2, pathLength + state.length + 1));
+        for (double value : state) path[pathLength++] = value;
+        path[pathLength++] = at;
+    }
+
+    /**
+     * Where the node being entered was when the run was suspended, or FRESH
+     * if the run isn't being resumed. The outermost node takes its place
+     * first, so a node's state comes back in the reverse of the order given
+     * to suspend()
+     */
+    int resumePoint() { return pathLength == 0 ? FRESH : (int) path[--pathLength]; }
+
+    double resumeValue() { return path[--pathLength]; }
+
+    public int getControl() { return control; }
+    public int getJumpLabel() { return jumpLabel; }
+
+    /**
+     * Makes the enclosing statement lists unwind until one that has the label
+     */
+    public void jump(int label) {
+        this.control = GOTO;
+        this.jumpLabel = label;
+    }
+
+    /**
+     * Leaves the enclosing loop (BREAK), subprogram (RETURN) or every
+     * program (STOP). Statement lists and loops unwind until one of them
+     * handles it, with no exception thrown
+     */
+    public void exit(int control) { this.control = control; }
+
+    /**
+     * Makes the enclosing statement list skip its next statement
+     */
+    public void skip() { this.control = SKIP; }
+
+    public void resume() { this.control = RUNNING; }
+
+    public void setLibrary(ProgramLibrary library) { this.library = library; }
+    public ProgramLibrary getLibrary() { return library; }
+
+    /**
+     * Runs a subprogram. It shares this environment, as on the calculator
+     * all programs share the same variables and screen
+     */
+    public void call(String name) {
+        if (library == null) throw new CasioBasicError("Go ERROR: no program library to find \"" + name + "\" in");
+        if (progDepth == MAX_PROG_DEPTH) throw new CasioBasicError("Ne ERROR: `Prog` calls nested more than " + MAX_PROG_DEPTH + " deep");
+        ASTNode program = library.load(name);
+        progDepth ++;
+        try {
+            program.evaluate(this);
+        } finally {
+            progDepth --;
+        }
+        // Return (and a Break with no loop around it) ends just the subprogram, Stop ends everything
+        if (control == RETURN || control == BREAK) control = RUNNING;
+    }
+
+    public double getVar(char varName) { return vars[varName - 'A']; }
+    public void setVar(char varName, double value) { vars[varName - 'A'] = value; }
+
+    /**
+     * Loads A-Z from `from[offset]` onwards
+     */
+    public void setVars(double[] from, int offset) { System.arraycopy(from, offset, vars, 0, vars.length); }
+
+    /**
+     * Copies A-Z into `to[offset]` onwards
+     */
+    public void copyVars(double[] to, int offset) { System.arraycopy(vars, 0, to, offset, vars.length); }
+
+    /**
+     * The key currently pressed, or 0 if there is none or no keyboard is
+     * attached. A program reading keys has finished drawing its frame, so
+     * this is where the display is flushed
+     */
+    public int getKey() {
+        flush();
+        if (pendingKeys != null) return pendingKey();
+        return keys == null ? 0 : keys.poll();
+    }
+
+    private int pendingKey() {
+        int key = pendingKeys[nextPendingKey++];
+        if (nextPendingKey == pendingKeys.length) pendingKeys = null;
+        return key;
+    }
+
+    public void locate(int x, int y, CharSequence text) { display.locate(x, y, text); }
+
+    public void print(CharSequence text) { display.print(text); }
+
+    public void clearText() { display.clear(); }
+
+    public void flush() {
+        if (sink != null) display.flush(sink);
+    }
+
+    /**
+     * Str 1-20. An unassigned string is empty
+     */
+    public Rope getString(int str) {
+        Rope value = strings[str - 1];
+        return value == null ? Rope.EMPTY : value;
+    }
+
+    // Ropes never change, so two names can share one
+    public void setString(int str, Rope value) { strings[str - 1] = value; }
+
+    /**
+     * List 1-26. An unassigned list is empty
+     */
+    public double[] getList(int list) {
+        double[] values = lists[list - 1];
+        return values == null ? new double[0] : values;
+    }
+
+    public void setList(int list, double[] values) {
+        // `List 1 -> List 2` must not leave both names sharing one array
+        for (double[] other : lists) {
+            if (other == values) { values = values.clone(); break; }
+        }
+        lists[list - 1] = values;
+    }
+
+    /**
+     * Sets element `index` (1 based) of a list. Setting the element just
+     * past the end makes the list one longer
+     */
+    public void setListElement(int list, int index, double value) {
+        double[] values = getList(list);
+        if (index == values.length + 1) {
+            values = java.util.Arrays.copyOf(values, index);
+            lists[list - 1] = values;
+        }
+        if (index < 1 || index > values.length) throw new CasioBasicError("Dimension ERROR: no element " + index + " in List " + list);
+        values[index - 1] = value;
+    }
+
+    /**
+     * Clears the given list, or all of them if it is 0
+     */
+    public void clearLists(int list) {
+        if (list == 0) java.util.Arrays.fill(lists, null);
+        else lists[list - 1] = null;
+    }
+
+    public Matrix getMatrix(char name) {
+        Matrix matrix = matrices[name - 'A'];
+        if (matrix == null) throw new CasioBasicError("Dimension ERROR: Mat " + name + " is empty");
+        return matrix;
+    }
+
+    public void setMatrix(char name, Matrix matrix) {
+        for (Matrix other : matrices) {
+            if (other == matrix) { matrix = matrix.copy(); break; }
+        }
+        matrices[name - 'A'] = matrix;
+    }
+
+    public void setMatrixElement(char name, int row, int col, double value) { getMatrix(name).set(row, col, value); }
+
+    /**
+     * Clears the given matrix, or all of them if it is 0
+     */
+    public void clearMatrices(char name) {
+        if (name == 0) java.util.Arrays.fill(matrices, null);
+        else matrices[name - 'A'] = null;
+    }
+
+    /**
+     * Writes everything a suspended run needs to carry on: the variables,
+     * lists, matrices, strings, both screens, the path back to the loop it
+     * stopped in, and the keys pressed but not yet read. The cable and the
+     * `Graph Y=` expressions stay behind
+     */
+    void save(DataOutput out) throws IOException {
+        for (double value : vars) out.writeDouble(value);
+        out.writeInt(presence(lists));
+        for (double[] list : lists) {
+            if (list == null) continue;
+            out.writeInt(list.length);
+            for (double value : list) out.writeDouble(value);
+        }
+        out.writeInt(presence(matrices));
+        for (Matrix matrix : matrices) {
+            if (matrix == null) continue;
+            out.writeInt(matrix.getRows());
+            out.writeInt(matrix.getCols());
+            for (double value : matrix.getData()) out.writeDouble(value);
+        }
+        out.writeInt(presence(strings));
+        for (Rope string : strings) {
+            if (string == null) continue;
+            out.writeInt(string.length());
+            out.writeChars(string.toString());
+        }
+        display.save(out);
+        out.writeBoolean(graph != null);
+        if (graph != null) graph.save(out);
+        out.writeInt(pathLength);
+        for (int i = 0; i < pathLength; i++) out.writeDouble(path[i]);
+        int[] pending = keys == null ? new int[0] : keys.takePending();
+        int left = pendingKeys == null ? 0 : pendingKeys.length - nextPendingKey;
+        out.writeInt(left + pending.length);
+        for (int i = 0; i < left; i++) out.writeInt(pendingKeys[nextPendingKey + i]);
+        for (int key : pending) out.writeInt(key);
+    }
+
+    /**
+     * Reads what save() wrote. The next run of the same program picks up
+     * where the saved one was suspended
+     */
+    void load(DataInput in) throws IOException {
+        for (int i = 0; i < vars.length; i++) vars[i] = in.readDouble();
+        int present = in.readInt();
+        for (int i = 0; i < lists.length; i++) {
+            if ((present & 1 << i) == 0) { lists[i] = null; continue; }
+            lists[i] = new double[in.readInt()];
+            for (int j = 0; j < lists[i].length; j++) lists[i][j] = in.readDouble();
+        }
+        present = in.readInt();
+        for (int i = 0; i < matrices.length; i++) {
+            if ((present & 1 << i) == 0) { matrices[i] = null; continue; }
+            Matrix matrix = new Matrix(in.readInt(), in.readInt());
+            double[] data = matrix.getData();
+            for (int j = 0; j < data.length; j++) data[j] = in.readDouble();
+            matrices[i] = matrix;
+        }
+        present = in.readInt();
+        for (int i = 0; i < strings.length; i++) {
+            if ((present & 1 << i) == 0) { strings[i] = null; continue; }
+            char[] chars = new char[in.readInt()];
+            for (int j = 0; j < chars.length; j++) chars[j] = in.readChar();
+            strings[i] = Rope.of(new String(chars));
+        }
+        display.load(in);
+        graph = in.readBoolean() ? new Graph() : null;
+        if (graph != null) graph.load(in);
+        pathLength = in.readInt();
+        path = new double[Math.max(16, pathLength)];
+        for (int i = 0; i < pathLength; i++) path[i] = in.readDouble();
+        pendingKeys = new int[in.readInt()];
+        for (int i = 0; i < pendingKeys.length; i++) pendingKeys[i] = in.readInt();
+        nextPendingKey = 0;
+        if (pendingKeys.length == 0) pendingKeys = null;
+        control = RUNNING;
+    }
+
+    // One bit per slot that holds something
+    private static int presence(Object[] slots) {
+        int bits = 0;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) bits |= 1 << i;
+        }
+        return bits;
+    }
+
+    /**
+     * A copy of the variables A-Z
+     */
+    public double[] getVars() { return vars.clone(); }
+
+    /**
+     * Formats a number the way the calculator displays it, see Decimal
+     */
+    public static String format(double value) { return Decimal.format(value); }
+}
@@ -0,0 +1,106 @@
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for each stage a program goes through, so a
+ * recording shows where the time goes per program
+ *
+ * Each stage creates its event, calls `begin()` and `end()` around the work
+ * and only fills it in if `shouldCommit()`. With recording off (or these
+ * events disabled) that is a few inlined checks on an object the JIT never
+ * allocates. Throughput is sampled once a second from counters bumped once
+ * per compile or run, never per statement
+ */
+final class Events {
+    private Events() {}
+
+    @Name("casiobasic.Lex")
+    @Label("Lex")
+    @Category({"Casio BASIC", "Compile"})
+    @Description("Turning a program's source into tokens")
+    @StackTrace(false)
+    static class Lex extends Event {
+        @Label("File") String file;
+        @Label("Source Size") @DataAmount long bytes;
+        @Label("Tokens") int tokens;
+    }
+
+    @Name("casiobasic.Parse")
+    @Label("Parse")
+    @Category({"Casio BASIC", "Compile"})
+    @Description("Turning a program's tokens into a syntax tree")
+    @StackTrace(false)
+    static class Parse extends Event {
+        @Label("File") String file;
+        @Label("Tokens") int tokens;
+        @Label("Statements") int statements;
+    }
+
+    @Name("casiobasic.CompileKernel")
+    @Label("Compile Kernel")
+    @Category({"Casio BASIC", "Compile"})
+    @Description("Compiling a table's expression into postfix code")
+    @StackTrace(false)
+    static class CompileKernel extends Event {
+        @Label("Instructions") int instructions;
+        @Label("Compiled") @Description("False if the expression has to be interpreted instead") boolean compiled;
+    }
+
+    @Name("casiobasic.Execute")
+    @Label("Execute")
+    @Category({"Casio BASIC", "Run"})
+    @Description("Running a program to the end, an error or a suspension")
+    @StackTrace(false)
+    static class Execute extends Event {
+        @Label("File") String file;
+        @Label("Tokens") int tokens;
+        @Label("Outcome") String outcome;
+    }
+
+    @Name("casiobasic.Throughput")
+    @Label("Throughput")
+    @Category({"Casio BASIC"})
+    @Description("Programs compiled and run since the last sample")
+    @Period("1 s")
+    @StackTrace(false)
+    static class Throughput extends Event {
+        @Label("Compiled") long compiled;
+        @Label("Tokens Lexed") long tokens;
+        @Label("Runs Started") long started;
+        @Label("Runs Finished") long finished;
+        @Label("Runs Failed") long failed;
+        @Label("Running") long running;
+    }
+
+    // Totals since startup, sampled by the Throughput event
+    static final LongAdder compiled = new LongAdder();
+    static final LongAdder tokens = new LongAdder();
+    static final LongAdder started = new LongAdder();
+    static final LongAdder finished = new LongAdder();
+    static final LongAdder failed = new LongAdder();
+
+    static {
+        // Only touched by the recorder's own thread
+        long[] last = new long[5];
+        FlightRecorder.addPeriodicEvent(Throughput.class, () -> {
+            Throughput event = new Throughput();
+            long[] now = { compiled.sum(), tokens.sum(), started.sum(), finished.sum(), failed.sum() };
+            event.compiled = now[0] - last[0];
+            event.tokens = now[1] - last[1];
+            event.started = now[2] - last[2];
+            event.finished = now[3] - last[3];
+            event.failed = now[4] - last[4];
+            event.running = now[2] - now[3];
+            System.arraycopy(now, 0, last, 0, now.length);
+            event.commit();
+        });
+    }
+}
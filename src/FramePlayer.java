@@ -0,0 +1,94 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a log written by FrameRecorder and rebuilds the screen at any
+ * frame. The log is scanned once on open to find where every frame starts,
+ * and a full copy of the screen is kept every KEYFRAME_INTERVAL frames, so
+ * seeking replays at most that many deltas
+ */
+public class FramePlayer implements Closeable {
+    static final int KEYFRAME_INTERVAL = 64;
+
+    private FileChannel channel;
+    private ByteBuffer log;
+    private int[] offsets;
+    private int frameCount;
+    // keyframes[k] is the screen after frame k * KEYFRAME_INTERVAL
+    private char[][] keyframes;
+
+    FramePlayer(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            // Frames are indexed by int offsets into a single mapping
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException(path + " is over 2 GB, too big to play");
+            this.log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (log.remaining() < FrameRecorder.HEADER_SIZE || log.getInt() != FrameRecorder.MAGIC) throw new IOException(path + " is not a frame recording");
+            if (log.get() != FrameRecorder.VERSION || log.get() != Display.WIDTH || log.get() != Display.HEIGHT) throw new IOException(path + " was recorded in an unsupported format");
+            index(path);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void index(Path path) throws IOException {
+        offsets = new int[64];
+        keyframes = new char[1][];
+        char[] screen = new char[Display.SIZE];
+        Arrays.fill(screen, ' ');
+        int pos = FrameRecorder.HEADER_SIZE;
+        while (pos < log.limit()) {
+            if (pos + 2 > log.limit()) throw new IOException(path + " ends in the middle of a frame");
+            int count = log.getShort(pos);
+            if (pos + 2 + count * 4 > log.limit()) throw new IOException(path + " ends in the middle of a frame");
+            if (frameCount == offsets.length) offsets = Arrays.copyOf(offsets, frameCount * 2);
+            offsets[frameCount] = pos;
+            apply(pos, screen);
+            if (frameCount % KEYFRAME_INTERVAL == 0) {
+                int k = frameCount / KEYFRAME_INTERVAL;
+                if (k == keyframes.length) keyframes = Arrays.copyOf(keyframes, k * 2);
+                keyframes[k] = screen.clone();
+            }
+            frameCount ++;
+            pos += 2 + count * 4;
+        }
+    }
+
+    private void apply(int pos, char[] screen) {
+        int count = log.getShort(pos);
+        for (int i = 0, at = pos + 2; i < count; i++, at += 4) {
+            screen[log.getShort(at)] = log.getChar(at + 2);
+        }
+    }
+
+    public int getFrameCount() { return frameCount; }
+
+    /**
+     * The screen's cells (row by row) as they were after the given frame
+     */
+    public char[] seek(int frame) {
+        if (frame < 0 || frame >= frameCount) throw new IndexOutOfBoundsException("Frame " + frame + " of " + frameCount);
+        int k = frame / KEYFRAME_INTERVAL;
+        char[] screen = keyframes[k].clone();
+        for (int i = k * KEYFRAME_INTERVAL + 1; i <= frame; i++) apply(offsets[i], screen);
+        return screen;
+    }
+
+    /**
+     * The screen after the given frame as text, one line per row
+     */
+    public String render(int frame) {
+        char[] screen = seek(frame);
+        String out = "";
+        for (int y = 0; y < Display.HEIGHT; y++) out += new String(screen, y * Display.WIDTH, Display.WIDTH) + "\n";
+        return out;
+    }
+
+    public void close() throws IOException { channel.close(); }
+}
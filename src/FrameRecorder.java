@@ -0,0 +1,70 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records every display frame to an append-only binary log, storing only
+ * the cells that changed since the previous frame. Frames are packed into
+ * a buffer and only written to the file when it fills up, so recording
+ * costs a few array writes per changed cell.
+ *
+ * The log starts with a header:
+ *
+ *     "CBFR" | version: byte | width: byte | height: byte
+ *
+ * followed by one record per frame:
+ *
+ *     count: short | (cell index: short, char: char) * count
+ */
+public class FrameRecorder implements DisplaySink, Closeable {
+    static final int MAGIC = 0x43424652; // "CBFR"
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 7;
+    private static final int MAX_FRAME_SIZE = 2 + 4 * Display.SIZE;
+
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    // Frames are also passed on here, if set
+    private DisplaySink next;
+    private int frameCount;
+
+    FrameRecorder(Path path, DisplaySink next) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.next = next;
+        buffer.putInt(MAGIC).put(VERSION).put((byte) Display.WIDTH).put((byte) Display.HEIGHT);
+    }
+
+    public void frame(char[] cells, int[] changed, int count) {
+        if (buffer.remaining() < MAX_FRAME_SIZE) drain();
+        buffer.putShort((short) count);
+        for (int i = 0; i < count; i++) {
+            buffer.putShort((short) changed[i]).putChar(cells[changed[i]]);
+        }
+        frameCount ++;
+        if (next != null) next.frame(cells, changed, count);
+    }
+
+    public int getFrameCount() { return frameCount; }
+
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+/**
+ * Writes random but valid programs of any size, for stress testing and
+ * benchmarking the lexer, parser and interpreter. The same seed and
+ * settings always give the same program.
+ *
+ * Generated programs also run to the end without an error. Every loop
+ * counts a variable of its own (Z for the outermost, then Y, and so on) up
+ * to a small bound. An expression reads at most one of the other
+ * variables and only multiplies or divides counters and constants, so
+ * values grow by adding at worst: nothing overflows or divides by 0
+ */
+public class Generator {
+    private static final String OPERATORS = "+-*/<>=≤≥&|";
+
+    private Random random;
+    private int lines = 1000;
+    private int maxDepth = 3;
+    private int expressionLength = 4;
+    private String operators = "+-*/<>";
+    private int variables = 8;
+    private double locateDensity = 0.1;
+
+    // Lines written so far, and operands left for the expression being written
+    private int written;
+    private int operands;
+    private boolean readVariable;
+
+    Generator(long seed) { this.random = new Random(seed); }
+
+    /**
+     * About how many lines to write. Loops that are still open are closed
+     * after the last one
+     */
+    public void setLines(int lines) { this.lines = lines; }
+
+    /**
+     * How deep `While`, `For`, `Do` and `If` may nest
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0 || maxDepth > 10) throw new IllegalArgumentException("Depth must be 0 to 10");
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * The most operands in an expression
+     */
+    public void setExpressionLength(int expressionLength) { this.expressionLength = Math.max(1, expressionLength); }
+
+    /**
+     * The operators expressions may use, out of `+`, `-`, `*`, `/`, `<`,
+     * `>`, `=`, `≤`, `≥`, `&` for And and `|` for Or. Listing one more than
+     * once makes it more likely
+     */
+    public void setOperators(String operators) {
+        for (char c : operators.toCharArray()) {
+            if (OPERATORS.indexOf(c) < 0) throw new IllegalArgumentException("Unknown operator " + c);
+        }
+        this.operators = operators;
+    }
+
+    /**
+     * How many variables, from A on, the program computes with, besides
+     * the loop counters
+     */
+    public void setVariables(int variables) {
+        if (variables < 1 || variables > 16) throw new IllegalArgumentException("Variables must be 1 to 16");
+        this.variables = variables;
+    }
+
+    /**
+     * The share of simple statements that are a `Locate`
+     */
+    public void setLocateDensity(double locateDensity) { this.locateDensity = locateDensity; }
+
+    public String generate() {
+        StringBuilder out = new StringBuilder();
+        generate(out);
+        return out.toString();
+    }
+
+    public void generate(Appendable out) {
+        written = 0;
+        try {
+            for (int v = 0; v < variables; v++) line(out, "0 -> " + (char) ('A' + v));
+            while (written < lines) statement(out, 0);
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+
+    private void line(Appendable out, String line) throws IOException {
+        out.append(line).append('\n');
+        written ++;
+    }
+
+    private void statement(Appendable out, int depth) throws IOException {
+        int kind = depth < maxDepth ? random.nextInt(10) : 9;
+        if (kind == 0) whileLoop(out, depth);
+        else if (kind == 1) forLoop(out, depth);
+        else if (kind == 2) doLoop(out, depth);
+        else if (kind == 3) ifBlock(out, depth);
+        else if (random.nextDouble() < locateDensity) locate(out, depth);
+        else line(out, expression(depth) + " -> " + (char) ('A' + random.nextInt(variables)));
+    }
+
+    // A body of a few statements, cut short once the program is long enough
+    private void body(Appendable out, int depth) throws IOException {
+        int count = 1 + random.nextInt(4);
+        for (int i = 0; i < count && (i == 0 || written < lines); i++) statement(out, depth);
+    }
+
+    private static char counter(int depth) { return (char) ('Z' - depth); }
+
+    private void whileLoop(Appendable out, int depth) throws IOException {
+        char c = counter(depth);
+        line(out, "0 -> " + c);
+        line(out, "While " + c + " < " + (1 + random.nextInt(3)));
+        body(out, depth + 1);
+        line(out, c + " + 1 -> " + c);
+        line(out, "WhileEnd");
+    }
+
+    private void forLoop(Appendable out, int depth) throws IOException {
+        line(out, "For 1 -> " + counter(depth) + " To " + (1 + random.nextInt(3)));
+        body(out, depth + 1);
+        line(out, "Next");
+    }
+
+    private void doLoop(Appendable out, int depth) throws IOException {
+        char c = counter(depth);
+        line(out, "0 -> " + c);
+        line(out, "Do");
+        body(out, depth + 1);
+        line(out, c + " + 1 -> " + c);
+        line(out, "LpWhile " + c + " < " + (1 + random.nextInt(3)));
+    }
+
+    private void ifBlock(Appendable out, int depth) throws IOException {
+        line(out, "If " + expression(depth));
+        out.append("Then ");
+        body(out, depth + 1);
+        if (random.nextBoolean()) {
+            line(out, "Else");
+            body(out, depth + 1);
+        }
+        line(out, "IfEnd");
+    }
+
+    private void locate(Appendable out, int depth) throws IOException {
+        String text = random.nextBoolean() ? expression(depth) : "\"" + (char) ('A' + random.nextInt(26)) + random.nextInt(1000) + "\"";
+        line(out, "Locate " + (1 + random.nextInt(21)) + ", " + (1 + random.nextInt(7)) + ", " + text);
+    }
+
+    /**
+     * Terms joined by the operators in the mix: sums, compared at most once
+     * each, joined by And and Or. Each term is a variable, or a product of
+     * counters and constants
+     */
+    private String expression(int depth) {
+        String adds = operators.replaceAll("[^-+]", "");
+        String relations = operators.replaceAll("[^<>=≤≥]", "");
+        String logic = operators.replaceAll("[^&|]", "");
+        String products = operators.replaceAll("[^*/]", "");
+        StringBuilder out = new StringBuilder();
+        operands = 1 + random.nextInt(expressionLength);
+        boolean compared = false;
+        readVariable = false;
+        out.append(term(depth, products));
+        while (operands > 0) {
+            // Only one comparison per clause, the parser doesn't chain them
+            String joins = adds + (compared ? "" : relations) + logic;
+            if (joins.isEmpty()) break;
+            char op = joins.charAt(random.nextInt(joins.length()));
+            if (op == '&' || op == '|') {
+                out.append(op == '&' ? " And " : " Or ");
+                compared = false;
+            }
+            else {
+                out.append(' ').append(op).append(' ');
+                compared |= relations.indexOf(op) >= 0;
+            }
+            out.append(term(depth, products));
+        }
+        return out.toString();
+    }
+
+    private String term(int depth, String products) {
+        if (products.isEmpty() || operands == 1 || random.nextInt(3) == 0) {
+            if (readVariable || random.nextBoolean()) return factor(depth);
+            readVariable = true;
+            operands --;
+            return "" + (char) ('A' + random.nextInt(variables));
+        }
+        StringBuilder out = new StringBuilder(factor(depth));
+        int factors = Math.min(operands, 1 + random.nextInt(3));
+        for (int i = 0; i < factors; i++) {
+            char op = products.charAt(random.nextInt(products.length()));
+            // Only ever divide by a constant, which is never 0
+            if (op == '/') {
+                out.append(" / ").append(1 + random.nextInt(9));
+                operands --;
+            }
+            else out.append(" * ").append(factor(depth));
+        }
+        return out.toString();
+    }
+
+    // A counter of an enclosing loop or a small constant
+    private String factor(int depth) {
+        operands --;
+        if (depth > 0 && random.nextBoolean()) return "" + counter(random.nextInt(depth));
+        return "" + (1 + random.nextInt(9));
+    }
+}
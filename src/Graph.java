@@ -0,0 +1,170 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import javax.imageio.ImageIO;
+
+/**
+ * The calculator's 127x63 graph screen, one bit per pixel in a `long[]`
+ *
+ * A graph samples its expression once per screen column. The columns are
+ * split into chunks that are evaluated in parallel, each in its own scratch
+ * environment with its own X, and only then drawn into the raster
+ */
+public class Graph {
+    static final int WIDTH = 127;
+    static final int HEIGHT = 63;
+    // Longs per row of pixels
+    static final int WORDS = (WIDTH + 63) / 64;
+    static final int CHUNK = 32;
+
+    private long[] pixels = new long[HEIGHT * WORDS];
+    // The calculator's initial view window
+    private double xMin = -6.3, xMax = 6.3, yMin = -3.1, yMax = 3.1;
+    // Y= expressions drawn since the last ClrGraph, redrawn by DrawGraph
+    private List<ASTNode> functions = new ArrayList<>();
+
+    Graph() { clear(); }
+
+    public void viewWindow(double xMin, double xMax, double yMin, double yMax) {
+        if (xMin >= xMax || yMin >= yMax) throw new CasioBasicError("Argument ERROR: `ViewWindow` minimum must be below maximum");
+        this.xMin = xMin;
+        this.xMax = xMax;
+        this.yMin = yMin;
+        this.yMax = yMax;
+        clear();
+    }
+
+    /**
+     * Clears the screen and forgets every graph, leaving only the axes
+     */
+    public void clear() {
+        functions.clear();
+        clearPixels();
+    }
+
+    private void clearPixels() {
+        java.util.Arrays.fill(pixels, 0);
+        if (yMin <= 0 && yMax >= 0) {
+            int row = row(0);
+            for (int col = 0; col < WIDTH; col++) set(col, row);
+        }
+        if (xMin <= 0 && xMax >= 0) {
+            int col = (int) Math.round(-xMin / (xMax - xMin) * (WIDTH - 1));
+            for (int row = 0; row < HEIGHT; row++) set(col, row);
+        }
+    }
+
+    /**
+     * Graph Y= expr: draws the expression over X and remembers it
+     */
+    public void draw(ASTNode expr, Environment env) {
+        functions.add(expr);
+        plot(sample(expr, env));
+    }
+
+    /**
+     * DrawGraph: redraws every remembered graph on a clean screen
+     */
+    public void drawAll(Environment env) {
+        clearPixels();
+        for (ASTNode expr : functions) plot(sample(expr, env));
+    }
+
+    /**
+     * The expression's value at every column, NaN where it is undefined
+     */
+    double[] sample(ASTNode expr, Environment env) {
+        double[] ys = new double[WIDTH];
+        CasioBasicError[] error = new CasioBasicError[1];
+        IntStream.range(0, (WIDTH + CHUNK - 1) / CHUNK).parallel().forEach(c -> {
+            Environment scratch = env.scratch();
+            for (int col = c * CHUNK; col < Math.min(WIDTH, (c + 1) * CHUNK); col++) {
+                scratch.setVar('X', xMin + col * (xMax - xMin) / (WIDTH - 1));
+                try {
+                    ys[col] = expr.evaluate(scratch);
+                } catch (CasioBasicError e) {
+                    // The calculator leaves gaps where the function is undefined
+                    if (!e.getMessage().startsWith("Math ERROR")) error[0] = e;
+                    ys[col] = Double.NaN;
+                }
+            }
+        });
+        if (error[0] != null) throw error[0];
+        return ys;
+    }
+
+    /**
+     * Draws the samples, joining neighbouring columns with a vertical run so
+     * steep graphs stay connected
+     */
+    private void plot(double[] ys) {
+        double prev = Double.NaN;
+        for (int col = 0; col < WIDTH; col++) {
+            double y = ys[col];
+            if (y != y) { prev = y; continue; }
+            // Off-screen points are kept just outside so lines still reach the edge
+            double row = Math.max(-1, Math.min(HEIGHT, (yMax - y) / (yMax - yMin) * (HEIGHT - 1)));
+            double from = prev != prev ? row : prev;
+            int top = (int) Math.round(Math.min(from, row));
+            int bottom = (int) Math.round(Math.max(from, row));
+            for (int r = Math.max(top, 0); r <= Math.min(bottom, HEIGHT - 1); r++) set(col, r);
+            prev = row;
+        }
+    }
+
+    private int row(double y) { return (int) Math.round((yMax - y) / (yMax - yMin) * (HEIGHT - 1)); }
+
+    private void set(int col, int row) { pixels[row * WORDS + (col >>> 6)] |= 1L << (col & 63); }
+
+    public boolean get(int col, int row) { return (pixels[row * WORDS + (col >>> 6)] & 1L << (col & 63)) != 0; }
+
+    /**
+     * Writes the view window and the pixels, but not the expressions
+     * `DrawGraph` would redraw
+     */
+    void save(java.io.DataOutput out) throws IOException {
+        out.writeDouble(xMin);
+        out.writeDouble(xMax);
+        out.writeDouble(yMin);
+        out.writeDouble(yMax);
+        for (long word : pixels) out.writeLong(word);
+    }
+
+    void load(java.io.DataInput in) throws IOException {
+        xMin = in.readDouble();
+        xMax = in.readDouble();
+        yMin = in.readDouble();
+        yMax = in.readDouble();
+        for (int i = 0; i < pixels.length; i++) pixels[i] = in.readLong();
+    }
+
+    /**
+     * Writes the screen as a binary PBM (P4) image
+     */
+    public void writePbm(Path path) throws IOException {
+        int rowBytes = (WIDTH + 7) / 8;
+        byte[] out = new byte[rowBytes * HEIGHT];
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                if (get(col, row)) out[row * rowBytes + col / 8] |= 0x80 >>> (col % 8);
+            }
+        }
+        try (OutputStream file = Files.newOutputStream(path)) {
+            file.write(("P4\n" + WIDTH + " " + HEIGHT + "\n").getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            file.write(out);
+        }
+    }
+
+    public void writePng(Path path) throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_BINARY);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) image.setRGB(col, row, get(col, row) ? 0xFF000000 : 0xFFFFFFFF);
+        }
+        ImageIO.write(image, "png", path.toFile());
+    }
+}
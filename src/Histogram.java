@@ -0,0 +1,79 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram that many threads can record into without contending:
+ * one `LongAdder` per power of two nanoseconds, so a record is a
+ * leading-zero count and a striped increment. Percentiles are only as
+ * precise as the bucket, within a factor of two
+ */
+public class Histogram {
+    private LongAdder[] buckets = new LongAdder[64];
+    private LongAdder totalNanos = new LongAdder();
+    private LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    Histogram() {
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Bucket i holds durations from 2^(i-1) up to 2^i nanoseconds
+     */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        buckets[64 - Long.numberOfLeadingZeros(nanos)].increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * The upper bound of the bucket holding the given fraction of
+     * recordings, in nanoseconds
+     */
+    private long percentile(long[] counts, long count, double fraction) {
+        long rank = (long) Math.ceil(count * fraction), seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) return i == 0 ? 0 : 1L << Math.min(i, 62);
+        }
+        return 0;
+    }
+
+    public Summary summary() {
+        long[] counts = new long[buckets.length];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) count += counts[i] = buckets[i].sum();
+        return new Summary(count, count == 0 ? 0 : totalNanos.sum() / count / 1000.0,
+                           percentile(counts, count, 0.5) / 1000.0, percentile(counts, count, 0.9) / 1000.0,
+                           percentile(counts, count, 0.99) / 1000.0, maxNanos.get() / 1000.0);
+    }
+
+    /**
+     * A histogram at one moment, in microseconds. MXBeans show it as a
+     * composite of its getters
+     */
+    public static class Summary {
+        private long count;
+        private double meanMicros, p50Micros, p90Micros, p99Micros, maxMicros;
+
+        Summary(long count, double meanMicros, double p50Micros, double p90Micros, double p99Micros, double maxMicros) {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p90Micros = p90Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() { return count; }
+        public double getMeanMicros() { return meanMicros; }
+        public double getP50Micros() { return p50Micros; }
+        public double getP90Micros() { return p90Micros; }
+        public double getP99Micros() { return p99Micros; }
+        public double getMaxMicros() { return maxMicros; }
+
+        public String toString() {
+            return String.format("%d, mean %.1fus, p50 %.1fus, p90 %.1fus, p99 %.1fus, max %.1fus", count, meanMicros, p50Micros, p90Micros, p99Micros, maxMicros);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+import java.util.Arrays;
+
+/**
+ * An expression compiled once into postfix code, for evaluating it many times
+ * without walking the tree
+ *
+ * `column()` runs each instruction over a whole block of rows at a time, so
+ * every instruction is one tight loop over primitive arrays. `scalar()` runs
+ * the same code a row at a time, for recurrences where each row needs the
+ * one before it. Both follow the interpreter's rounding, except that a Math
+ * ERROR gives NaN for that row instead of stopping the program
+ */
+public class Kernel {
+    static final int CONST = 0;
+    static final int VAR = 1;
+    static final int ADD = 2;
+    static final int SUBTRACT = 3;
+    static final int MULTIPLY = 4;
+    static final int DIVIDE = 5;
+    static final int NEGATE = 6;
+    static final int LESS = 7;
+    static final int GREATER = 8;
+    static final int LESS_EQ = 9;
+    static final int GREATER_EQ = 10;
+    static final int EQUAL = 11;
+    static final int NOT_EQUAL = 12;
+    static final int AND = 13;
+    static final int OR = 14;
+    static final int NOT = 15;
+
+    // Rows evaluated together by column(), small enough for the stack to stay in cache
+    static final int BLOCK = 1024;
+
+    // Each instruction is the op in the low byte and its argument above it
+    private int[] code = new int[16];
+    private int length;
+    private double[] consts = new double[4];
+    private int constCount;
+    private int depth;
+    private int maxDepth;
+
+    private Kernel() {}
+
+    /**
+     * Compiles a numeric expression, or returns null if it uses anything the
+     * kernel can't run, such as `Getkey` or lists
+     */
+    static Kernel compile(ASTNode expr) {
+        Events.CompileKernel event = new Events.CompileKernel();
+        event.begin();
+        Kernel kernel = new Kernel();
+        boolean compiled = expr.kind() == ASTNode.NUMBER && expr.compile(kernel);
+        event.end();
+        if (event.shouldCommit()) {
+            event.instructions = kernel.length;
+            event.compiled = compiled;
+            event.commit();
+        }
+        return compiled ? kernel : null;
+    }
+
+    boolean emit(int op) { return emit(op, 0); }
+
+    boolean emitConst(double value) {
+        if (constCount == consts.length) consts = Arrays.copyOf(consts, constCount * 2);
+        consts[constCount] = value;
+        return emit(CONST, constCount++);
+    }
+
+    boolean emitVar(char name) { return emit(VAR, name - 'A'); }
+
+    private boolean emit(int op, int arg) {
+        if (length == code.length) code = Arrays.copyOf(code, length * 2);
+        code[length++] = op | arg << 8;
+        if (op <= VAR) maxDepth = Math.max(maxDepth, ++depth);
+        else if (op != NEGATE && op != NOT) depth--;
+        return true;
+    }
+
+    /**
+     * The expression for `rows` values of one variable, start + i * step,
+     * with the other variables read from vars
+     */
+    double[] column(char var, double start, double step, int rows, double[] vars) {
+        double[] out = new double[rows];
+        double[][] stack = new double[maxDepth][BLOCK];
+        int column = var - 'A';
+        for (int from = 0; from < rows; from += BLOCK) {
+            int n = Math.min(BLOCK, rows - from);
+            int sp = 0;
+            for (int pc = 0; pc < length; pc++) {
+                int op = code[pc] & 0xFF, arg = code[pc] >>> 8;
+                if (op == CONST) Arrays.fill(stack[sp++], 0, n, consts[arg]);
+                else if (op == VAR && arg == column) {
+                    double[] x = stack[sp++];
+                    for (int i = 0; i < n; i++) x[i] = Decimal.roundQuiet(start + (from + i) * step);
+                }
+                else if (op == VAR) Arrays.fill(stack[sp++], 0, n, vars[arg]);
+                else if (op == NEGATE) negate(stack[sp - 1], n);
+                else if (op == NOT) not(stack[sp - 1], n);
+                else {
+                    binary(op, stack[sp - 2], stack[sp - 1], n);
+                    sp--;
+                }
+            }
+            System.arraycopy(stack[0], 0, out, from, n);
+        }
+        return out;
+    }
+
+    private static void negate(double[] a, int n) {
+        for (int i = 0; i < n; i++) a[i] = -a[i];
+    }
+
+    private static void not(double[] a, int n) {
+        for (int i = 0; i < n; i++) a[i] = a[i] != a[i] ? Double.NaN : a[i] == 0 ? 1 : 0;
+    }
+
+    private static void binary(int op, double[] a, double[] b, int n) {
+        switch (op) {
+            case ADD:        for (int i = 0; i < n; i++) a[i] = Decimal.roundQuiet(a[i] + b[i]); break;
+            case SUBTRACT:   for (int i = 0; i < n; i++) a[i] = Decimal.roundQuiet(a[i] - b[i]); break;
+            case MULTIPLY:   for (int i = 0; i < n; i++) a[i] = Decimal.roundQuiet(a[i] * b[i]); break;
+            case DIVIDE:     for (int i = 0; i < n; i++) a[i] = b[i] == 0 ? Double.NaN : Decimal.roundQuiet(a[i] / b[i]); break;
+            case LESS:       for (int i = 0; i < n; i++) a[i] = truth(a[i], b[i], a[i] < b[i]); break;
+            case GREATER:    for (int i = 0; i < n; i++) a[i] = truth(a[i], b[i], a[i] > b[i]); break;
+            case LESS_EQ:    for (int i = 0; i < n; i++) a[i] = truth(a[i], b[i], a[i] <= b[i]); break;
+            case GREATER_EQ: for (int i = 0; i < n; i++) a[i] = truth(a[i], b[i], a[i] >= b[i]); break;
+            case EQUAL:      for (int i = 0; i < n; i++) a[i] = truth(a[i], b[i], a[i] == b[i]); break;
+            case NOT_EQUAL:  for (int i = 0; i < n; i++) a[i] = truth(a[i], b[i], a[i] != b[i]); break;
+            case AND:        for (int i = 0; i < n; i++) a[i] = truth(a[i], b[i], a[i] != 0 && b[i] != 0); break;
+            case OR:         for (int i = 0; i < n; i++) a[i] = truth(a[i], b[i], a[i] != 0 || b[i] != 0); break;
+        }
+    }
+
+    /**
+     * 1 or 0 for a comparison or logic op, or NaN if either side is, as the
+     * interpreter would have stopped with a Math ERROR computing it
+     */
+    private static double truth(double a, double b, boolean r) {
+        return a != a || b != b ? Double.NaN : r ? 1 : 0;
+    }
+
+    /**
+     * A stack big enough for scalar(), allocated once per table
+     */
+    double[] newStack() { return new double[maxDepth]; }
+
+    /**
+     * The expression for a single row, with every variable read from vars
+     */
+    double scalar(double[] vars, double[] stack) {
+        int sp = 0;
+        for (int pc = 0; pc < length; pc++) {
+            int op = code[pc] & 0xFF, arg = code[pc] >>> 8;
+            switch (op) {
+                case CONST: stack[sp++] = consts[arg]; continue;
+                case VAR: stack[sp++] = vars[arg]; continue;
+                case NEGATE: stack[sp - 1] = -stack[sp - 1]; continue;
+                case NOT: stack[sp - 1] = stack[sp - 1] != stack[sp - 1] ? Double.NaN : stack[sp - 1] == 0 ? 1 : 0; continue;
+            }
+            double a = stack[sp - 2], b = stack[--sp];
+            double r;
+            switch (op) {
+                case ADD:        r = Decimal.roundQuiet(a + b); break;
+                case SUBTRACT:   r = Decimal.roundQuiet(a - b); break;
+                case MULTIPLY:   r = Decimal.roundQuiet(a * b); break;
+                case DIVIDE:     r = b == 0 ? Double.NaN : Decimal.roundQuiet(a / b); break;
+                case LESS:       r = truth(a, b, a < b); break;
+                case GREATER:    r = truth(a, b, a > b); break;
+                case LESS_EQ:    r = truth(a, b, a <= b); break;
+                case GREATER_EQ: r = truth(a, b, a >= b); break;
+                case EQUAL:      r = truth(a, b, a == b); break;
+                case NOT_EQUAL:  r = truth(a, b, a != b); break;
+                case AND:        r = truth(a, b, a != 0 && b != 0); break;
+                default:         r = truth(a, b, a != 0 || b != 0); break;
+            }
+            stack[sp - 1] = r;
+        }
+        return stack[0];
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free queue of key presses. Any number of threads (a
+ * terminal reader, a test script, a network session) can push keys, and the
+ * program's thread polls them through `Getkey` without ever blocking.
+ *
+ * Each slot carries a sequence number saying whose turn it is: producers
+ * claim a position with a CAS on `tail` and publish by bumping the slot's
+ * sequence, and the single consumer frees the slot by moving its sequence
+ * one lap ahead
+ */
+public class KeyBuffer implements KeySource {
+    private int mask;
+    private int[] keys;
+    private AtomicLongArray sequences;
+    private AtomicLong tail = new AtomicLong();
+    // Only touched by the consuming thread
+    private long head;
+
+    KeyBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of two");
+        this.mask = capacity - 1;
+        this.keys = new int[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) sequences.set(i, i);
+    }
+
+    /**
+     * Pushes a key press. Returns false and drops the key if the buffer is
+     * full, like a calculator whose program isn't reading its keys
+     */
+    public boolean offer(int key) {
+        while (true) {
+            long pos = tail.get();
+            int slot = (int) pos & mask;
+            long diff = sequences.get(slot) - pos;
+            if (diff < 0) return false;
+            if (diff == 0 && tail.compareAndSet(pos, pos + 1)) {
+                keys[slot] = key;
+                sequences.lazySet(slot, pos + 1);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest key press, or returns 0 if there is none. Must only be
+     * called from one thread at a time
+     */
+    public int poll() {
+        int slot = (int) head & mask;
+        if (sequences.get(slot) != head + 1) return 0;
+        int key = keys[slot];
+        sequences.lazySet(slot, head + mask + 1);
+        head ++;
+        return key;
+    }
+
+    public int[] takePending() {
+        int[] pending = new int[keys.length];
+        int count = 0, key;
+        while (count < pending.length && (key = poll()) != 0) pending[count++] = key;
+        return java.util.Arrays.copyOf(pending, count);
+    }
+}
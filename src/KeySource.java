@@ -0,0 +1,16 @@
+/**
+ * Where `Getkey` reads keys from
+ */
+public interface KeySource {
+    /**
+     * Returns the code of the key being pressed, or 0 if no key is pressed.
+     * Must not block for long, as programs poll it in tight loops
+     */
+    public int poll();
+
+    /**
+     * Takes every key pressed but not yet read, so they can go into a
+     * snapshot. Sources that don't queue keys have none
+     */
+    public default int[] takePending() { return new int[0]; }
+}
@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recorded sequence of key presses, each tied to the `Getkey` call that
+ * saw it rather than to wall clock time. Replaying a timeline gives the
+ * program exactly the same keys at the same points, however fast it runs,
+ * so interactive programs can be tested and benchmarked headlessly.
+ *
+ * Timelines are stored as text, one `<getkey call> <key code>` pair per line
+ */
+public class KeyTimeline {
+    // ticks[i] is the number of Getkey calls before keys[i] was seen, ascending
+    private long[] ticks;
+    private int[] keys;
+
+    KeyTimeline(long[] ticks, int[] keys) {
+        this.ticks = ticks;
+        this.keys = keys;
+    }
+
+    public static KeyTimeline load(Path path) throws IOException {
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        long[] ticks = new long[lines.size()];
+        int[] keys = new int[lines.size()];
+        int count = 0;
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("'")) continue;
+            String[] parts = line.split("\\s+");
+            if (parts.length != 2) throw new IOException(path + ": expects `<getkey call> <key code>`, got `" + line + "`");
+            ticks[count] = Long.parseLong(parts[0]);
+            keys[count] = Integer.parseInt(parts[1]);
+            if (count > 0 && ticks[count] <= ticks[count - 1]) throw new IOException(path + ": Getkey calls must be increasing");
+            count ++;
+        }
+        return new KeyTimeline(java.util.Arrays.copyOf(ticks, count), java.util.Arrays.copyOf(keys, count));
+    }
+
+    public void save(Path path) throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < ticks.length; i++) out.append(ticks[i]).append(' ').append(keys[i]).append('\n');
+        Files.write(path, out.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public int size() { return ticks.length; }
+
+    /**
+     * A fresh key source that plays this timeline back from the start. The
+     * timeline itself is immutable, so many runs can replay it at once
+     */
+    public KeySource replay() {
+        return new KeySource() {
+            private long tick;
+            private int next;
+
+            public int poll() {
+                long now = tick ++;
+                if (next == ticks.length || ticks[next] != now) return 0;
+                return keys[next++];
+            }
+        };
+    }
+
+    /**
+     * Wraps a key source, remembering every key it hands out
+     */
+    static class Recorder implements KeySource {
+        private KeySource source;
+        private long tick;
+        private List<long[]> events = new ArrayList<>();
+
+        Recorder(KeySource source) { this.source = source; }
+
+        public int poll() {
+            int key = source.poll();
+            if (key != 0) events.add(new long[] { tick, key });
+            tick ++;
+            return key;
+        }
+
+        public KeyTimeline toTimeline() {
+            long[] ticks = new long[events.size()];
+            int[] keys = new int[events.size()];
+            for (int i = 0; i < ticks.length; i++) {
+                ticks[i] = events.get(i)[0];
+                keys[i] = (int) events.get(i)[1];
+            }
+            return new KeyTimeline(ticks, keys);
+        }
+    }
+}
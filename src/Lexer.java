@@ -1,7 +1,10 @@
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
 import java.util.Queue;
 
@@ -20,17 +23,17 @@ import java.util.Queue;
 // LpWhile          | x
 
 //      Program controls
-// Prog             |
-// Return           |
-// Break            |
-// Stop             |
+// Prog             | x
+// Return           | x
+// Break            | x
+// Stop             | x
 
 //      Jump commands
-// Lbl              |
-// Goto             |
-// =>               |
-// Isz              |
-// Dsz              |
+// Lbl              | x
+// Goto             | x
+// =>               | x
+// Isz              | x
+// Dsz              | x
 // Menu             |
 
 
@@ -39,20 +42,24 @@ import java.util.Queue;
 // ¸                |
 
 //      Clear commands
-// ClrText          |
-// ClrGraph         |
-// ClrList          |
-// ClrMat           |
+// ClrText          | x
+// ClrGraph         | x
+// ClrList          | x
+// ClrMat           | x
 // ClrVct           |
 
+//      Graph commands
+// Graph Y=         | x
+// ViewWindow       | x
+
 //      Display commands
 // DrawStat         |
-// DrawGraph        |
+// DrawGraph        | x
 // DrawDyna         |
 // DrawWeb          |
 // PlotPhase        |
-// DispF-Tbl        |
-// DispR-Tbl        |
+// DispF-Tbl        | x
+// DispR-Tbl        | x
 // DrawFTG-Con      |
 // DrawFTG-Plt      |
 // DrawR-Con        |
@@ -63,12 +70,12 @@ import java.util.Queue;
 //      I/O commands
 // Locate           | x
 // Getkey           | x
-// Send(            |
-// Receive(         |
-// Send38k          |
-// Receive38k       |
-// OpenComport38k   |
-// CloseComport38k  |
+// Send(            | x
+// Receive(         | x
+// Send38k          | x
+// Receive38k       | x
+// OpenComport38k   | x
+// CloseComport38k  | x
 
 //      Relational operators
 // =                | x
@@ -78,28 +85,39 @@ import java.util.Queue;
 // ≥                | x  also `>=`
 // ≤                | x  also `<=`
 
+//      List and matrix commands
+// List             | x
+// Mat              | x
+// Sum              | x
+// Prod             | x
+// Dim              | x
+// { }              | x
+// [ ]              | x
+
 //      Multi-statement commands
 // :                | x
 // \n               | x
 
 //      String commands
+// Str              | x
 // Exp(             |
 // Exp>Str(         |
-// StrCmp(          |
-// StrInv(          |
-// StrJoin(         |
-// StrLeft(         |
-// StrLen(          |
-// StrLwr(          |
-// StrMid(          |
-// StrRight(        |
-// StrRotate(       |
-// StrShift(        |
-// StrSrc(          |
-// StrUpr(          |
+// StrCmp(          | x
+// StrInv(          | x
+// StrJoin(         | x
+// StrLeft(         | x
+// StrLen(          | x
+// StrLwr(          | x
+// StrMid(          | x
+// StrRight(        | x
+// StrRotate(       | x
+// StrShift(        | x
+// StrSrc(          | x
+// StrUpr(          | x
 
 //      Other
 // '                | x
+// ᴇ                | x  also `E` straight after a number
 
 
 
@@ -113,6 +131,8 @@ public class Lexer {
 
     Lexer(File file) { lexFile(file); }
 
+    Lexer(String fileName, String source) { lexSource(fileName, source); }
+
     public Queue<Token> getTokens() { return tokens; }
 
     private TokenLocation getCurrentLoc() {
@@ -120,8 +140,7 @@ public class Lexer {
     }
 
     private void fail(String message) {
-        System.out.println("ERROR: " + getCurrentLoc() + "  " + message);
-        System.exit(1);
+        throw new CasioBasicError(getCurrentLoc(), message);
     }
 
     private char peek(String line) {
@@ -133,21 +152,45 @@ public class Lexer {
         try {
             // Update the class variables
             this.fileName = file.toString();
-            this.lineNum = 0;
-            tokens = new LinkedList<>();
+            lexLines(new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)));
+        } catch (IOException e) { throw new CasioBasicError("Invalid file \"" + fileName + "\""); }
+    }
+
+    private void lexSource(String fileName, String source) {
+        try {
+            this.fileName = fileName;
+            lexLines(new BufferedReader(new StringReader(source)));
+        } catch (IOException e) { throw new CasioBasicError("Unreachable in lexSource(): " + e.getMessage()); }
+    }
 
-            // Splits the file's contents by line
-            BufferedReader br = new BufferedReader(new FileReader(file));
-            String line;
+    private void lexLines(BufferedReader br) throws IOException {
+        Events.Lex event = new Events.Lex();
+        event.begin();
+        this.lineNum = 0;
+        tokens = new LinkedList<>();
+
+        // Splits the contents by line
+        String line;
+        long chars = 0;
+        // Closed even when a line doesn't lex
+        try (br) {
             while ((line = br.readLine()) != null) {
                 lexLine(line);
+                chars += line.length() + 1;
             }
-            br.close();
-        } catch (IOException e) { System.out.println("Invalid file \"" + fileName + "\""); System.exit(1); }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = fileName;
+            event.bytes = chars;
+            event.tokens = tokens.size();
+            event.commit();
+        }
+        Events.tokens.add(tokens.size());
     }
 
     private void lexLine(String line) {
-        assert TokenType.values().length == 35 : "Exhaustive handling of TokenTypes in lexLine()";
+        assert TokenType.values().length == 80 : "Exhaustive handling of TokenTypes in lexLine()";
 
         this.lineNum ++;
         this.col = 0;
@@ -163,7 +206,7 @@ public class Lexer {
                 else tokens.offer(new Token(TokenType.MINUS, getCurrentLoc(), '-'));
             }
             else if (Character.isWhitespace(c)) {}
-            else if (Character.isDigit(c)) tokens.offer(lexNum(line));
+            else if (Character.isDigit(c) || c == '.') tokens.offer(lexNum(line));
             else if (Character.isAlphabetic(c)) tokens.offer(lexIdentifier(line));
             else if (c == '"') tokens.offer(lexText(line));
             else if (c == '+') tokens.offer(new Token(TokenType.PLUS, getCurrentLoc(), '+'));
@@ -177,27 +220,63 @@ public class Lexer {
             else if (c == '<') tokens.offer(new Token(TokenType.L_THAN, getCurrentLoc(), '<'));
             else if (c == '≤') tokens.offer(new Token(TokenType.L_THAN_E, getCurrentLoc(), '≤'));
             else if (c == '≥') tokens.offer(new Token(TokenType.G_THAN_E, getCurrentLoc(), '>'));
-            else if (c == '=') tokens.offer(new Token(TokenType.EQ_TO, getCurrentLoc(), '='));
+            else if (c == '=') {
+                if (peek(line) == '>') {
+                    tokens.offer(new Token(TokenType.JUMP, getCurrentLoc(), "=>"));
+                    this.col ++;
+                }
+                else tokens.offer(new Token(TokenType.EQ_TO, getCurrentLoc(), '='));
+            }
             else if (c == ',') tokens.offer(new Token(TokenType.COMMA, getCurrentLoc(), ','));
+            else if (c == '{') tokens.offer(new Token(TokenType.LBRACE, getCurrentLoc(), '{'));
+            else if (c == '}') tokens.offer(new Token(TokenType.RBRACE, getCurrentLoc(), '}'));
+            else if (c == '[') tokens.offer(new Token(TokenType.LBRACKET, getCurrentLoc(), '['));
+            else if (c == ']') tokens.offer(new Token(TokenType.RBRACKET, getCurrentLoc(), ']'));
             else fail("Unknown character '" + c + "'");
             this.col ++;
         }
     }
 
+    /**
+     * NUM ::= [0-9]* ( `.` [0-9]* ) ( ( `ᴇ` | `E` ) ( `+` | `-` ) [0-9]+ )
+     *
+     * Whole numbers are lexed as an Integer, everything else as a Double
+     */
     private Token lexNum(String line) {
         // String to hold the value
         String num = "";
+        boolean whole = true;
         while (this.col < line.length()) {
             char c = line.charAt(this.col);
-            if (!Character.isDigit(c)) break;
+            if (c == '.' && whole && !num.contains("E")) whole = false;
+            else if ((c == 'ᴇ' || c == 'E') && !num.contains("E") && isExponent(line, this.col + 1)) {
+                whole = false;
+                c = 'E';
+                if (line.charAt(this.col + 1) == '+' || line.charAt(this.col + 1) == '-') {
+                    num += c;
+                    c = line.charAt(++this.col);
+                }
+            }
+            else if (!Character.isDigit(c)) break;
             num += c;
             this.col ++;
         }
         // We have gone one too far, so back track
         this.col --;
         if (num.isEmpty()) fail("Unreachable in lexNum(): num string is empty. This is a bug in the lexer");
-        int val = Integer.valueOf(num);
-        return new Token(TokenType.NUM, getCurrentLoc(), val);
+        if (num.equals(".")) fail("Expects digits around `.`");
+        if (whole && num.length() < 10) return new Token(TokenType.NUM, getCurrentLoc(), Integer.valueOf(num));
+        double val = Double.parseDouble(num);
+        if (!(Math.abs(val) < Decimal.MAX)) fail("Math ERROR: " + num + " is too large");
+        return new Token(TokenType.NUM, getCurrentLoc(), Decimal.round(val));
+    }
+
+    /**
+     * Whether an exponent's digits, with an optional sign, start at i
+     */
+    private boolean isExponent(String line, int i) {
+        if (i < line.length() && (line.charAt(i) == '+' || line.charAt(i) == '-')) i++;
+        return i < line.length() && Character.isDigit(line.charAt(i));
     }
 
     private Token lexIdentifier(String line) {
@@ -208,6 +287,17 @@ public class Lexer {
             identifier += c;
             this.col ++;
         }
+        // Special case: the table commands have a `-` in their name
+        if ((identifier.equals("DispF") || identifier.equals("DispR")) && line.startsWith("-Tbl", this.col)) {
+            identifier += "-Tbl";
+            this.col += 4;
+        }
+        // ... and the 38k link commands a number
+        if (line.startsWith("38k", this.col) && (identifier.equals("Send") || identifier.equals("Receive")
+                || identifier.equals("OpenComport") || identifier.equals("CloseComport"))) {
+            identifier += "38k";
+            this.col += 3;
+        }
         this.col --;
         // Special case: VAR_NAME
         if (identifier.length() == 1) {
@@ -235,6 +325,36 @@ public class Lexer {
         else if (identifier.equals("Then"))     type = TokenType.THEN;
         else if (identifier.equals("Else"))     type = TokenType.ELSE;
         else if (identifier.equals("IfEnd"))    type = TokenType.IF_END;
+        else if (identifier.equals("Lbl"))      type = TokenType.LBL;
+        else if (identifier.equals("Goto"))     type = TokenType.GOTO;
+        else if (identifier.equals("Isz"))      type = TokenType.ISZ;
+        else if (identifier.equals("Dsz"))      type = TokenType.DSZ;
+        else if (identifier.equals("Prog"))     type = TokenType.PROG;
+        else if (identifier.equals("Return"))   type = TokenType.RETURN;
+        else if (identifier.equals("Break"))    type = TokenType.BREAK;
+        else if (identifier.equals("Stop"))     type = TokenType.STOP;
+
+        else if (identifier.equals("List"))     type = TokenType.LIST;
+        else if (identifier.equals("Mat"))      type = TokenType.MAT;
+        else if (identifier.equals("Sum"))      type = TokenType.SUM;
+        else if (identifier.equals("Prod"))     type = TokenType.PROD;
+        else if (identifier.equals("Dim"))      type = TokenType.DIM;
+        else if (identifier.equals("ClrList"))  type = TokenType.CLR_LIST;
+        else if (identifier.equals("ClrMat"))   type = TokenType.CLR_MAT;
+
+        else if (identifier.equals("Str"))       type = TokenType.STR;
+        else if (identifier.equals("StrJoin"))   type = TokenType.STR_JOIN;
+        else if (identifier.equals("StrMid"))    type = TokenType.STR_MID;
+        else if (identifier.equals("StrLeft"))   type = TokenType.STR_LEFT;
+        else if (identifier.equals("StrRight"))  type = TokenType.STR_RIGHT;
+        else if (identifier.equals("StrRotate")) type = TokenType.STR_ROTATE;
+        else if (identifier.equals("StrShift"))  type = TokenType.STR_SHIFT;
+        else if (identifier.equals("StrLen"))    type = TokenType.STR_LEN;
+        else if (identifier.equals("StrCmp"))    type = TokenType.STR_CMP;
+        else if (identifier.equals("StrSrc"))    type = TokenType.STR_SRC;
+        else if (identifier.equals("StrInv"))    type = TokenType.STR_INV;
+        else if (identifier.equals("StrUpr"))    type = TokenType.STR_UPR;
+        else if (identifier.equals("StrLwr"))    type = TokenType.STR_LWR;
 
         else if (identifier.equals("And"))      type = TokenType.AND;
         else if (identifier.equals("Or"))       type = TokenType.OR;
@@ -242,11 +362,26 @@ public class Lexer {
 
         else if (identifier.equals("Getkey"))   type = TokenType.GET_KEY;
         else if (identifier.equals("Locate"))   type = TokenType.LOCATE;
+        else if (identifier.equals("ClrText"))  type = TokenType.CLEAR_TEXT;
+
+        else if (identifier.equals("Graph"))    type = TokenType.GRAPH;
+        else if (identifier.equals("ViewWindow")) type = TokenType.VIEW_WINDOW;
+        else if (identifier.equals("DrawGraph")) type = TokenType.DRAW_GRAPH;
+        else if (identifier.equals("ClrGraph")) type = TokenType.CLR_GRAPH;
+        else if (identifier.equals("DispF-Tbl")) type = TokenType.DISP_F_TBL;
+        else if (identifier.equals("DispR-Tbl")) type = TokenType.DISP_R_TBL;
+
+        else if (identifier.equals("Send"))     type = TokenType.SEND;
+        else if (identifier.equals("Receive"))  type = TokenType.RECEIVE;
+        else if (identifier.equals("Send38k"))  type = TokenType.SEND_38K;
+        else if (identifier.equals("Receive38k")) type = TokenType.RECEIVE_38K;
+        else if (identifier.equals("OpenComport38k")) type = TokenType.OPEN_COMPORT;
+        else if (identifier.equals("CloseComport38k")) type = TokenType.CLOSE_COMPORT;
 
         if (type == null) {
             fail("Unknown identifier '" + identifier + "'");
         }
-        return new Token(type, new TokenLocation(fileName, lineNum, col - identifier.length() + 1), identifier);
+        return new Token(type, new TokenLocation(fileName, lineNum, col - identifier.length() + 2), identifier);
     }
 
     private Token lexText(String line) {
@@ -260,8 +395,7 @@ public class Lexer {
             text += line.charAt(this.col);
         }
         if (line.charAt(this.col) != '"') fail("Text expects closing `\"`");
-        // Skip trailing `"`
-        this.col ++;
-        return new Token(TokenType.TEXT ,new TokenLocation(fileName, lineNum, col - text.length()), text);
+        // Stay on the trailing `"`, lexLine() steps past it
+        return new Token(TokenType.TEXT ,new TokenLocation(fileName, lineNum, col - text.length() + 1), text);
     }
 }
@@ -0,0 +1,21 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The cable between two calculators, used by `Send(`, `Receive(` and the
+ * 38k commands. Values are a Double, a `double[]` list, a Matrix or a Rope.
+ *
+ * Sends may be held back and batched; they are all delivered before the
+ * next poll() returns and when the link is closed
+ */
+public interface Link extends Closeable {
+    public void send(Object value) throws IOException;
+
+    /**
+     * The next value from the other calculator, or null if none arrived
+     * within `millis`
+     */
+    public Object poll(long millis) throws IOException;
+
+    public void flush() throws IOException;
+}
@@ -0,0 +1,33 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread safe map that forgets the least recently used entry once it holds
+ * more than `capacity` entries
+ */
+public class LruCache<K, V> {
+    private LinkedHashMap<K, V> map;
+    private long hits;
+    private long misses;
+
+    LruCache(int capacity) {
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) { return size() > capacity; }
+        };
+    }
+
+    public synchronized V get(K key) {
+        V value = map.get(key);
+        if (value == null) misses ++;
+        else hits ++;
+        return value;
+    }
+
+    public synchronized void put(K key, V value) { map.put(key, value); }
+
+    public synchronized void clear() { map.clear(); }
+
+    public synchronized int size() { return map.size(); }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+}
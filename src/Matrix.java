@@ -0,0 +1,88 @@
+import java.util.stream.IntStream;
+
+/**
+ * A matrix stored row by row in one contiguous `double[]`
+ */
+public class Matrix {
+    private int rows;
+    private int cols;
+    private double[] data;
+
+    Matrix(int rows, int cols, double[] data) {
+        this.rows = rows;
+        this.cols = cols;
+        this.data = data;
+    }
+
+    Matrix(int rows, int cols) { this(rows, cols, new double[rows * cols]); }
+
+    public int getRows() { return rows; }
+    public int getCols() { return cols; }
+
+    /**
+     * The element at row and column, both 1 based
+     */
+    public double get(int row, int col) { return data[index(row, col)]; }
+    public void set(int row, int col, double value) { data[index(row, col)] = value; }
+
+    private int index(int row, int col) {
+        if (row < 1 || row > rows || col < 1 || col > cols) throw new CasioBasicError("Dimension ERROR: no element [" + row + "," + col + "] in a " + rows + "x" + cols + " matrix");
+        return (row - 1) * cols + col - 1;
+    }
+
+    public Matrix copy() { return new Matrix(rows, cols, data.clone()); }
+
+    /**
+     * The elements row by row. This is the matrix's own array, not a copy
+     */
+    double[] getData() { return data; }
+
+    /**
+     * Element-wise `a op b`, where op is one of VectorOps' ADD or SUBTRACT
+     */
+    public static Matrix apply(int op, Matrix a, Matrix b) {
+        if (a.rows != b.rows || a.cols != b.cols) throw new CasioBasicError("Dimension ERROR: " + a.rows + "x" + a.cols + " and " + b.rows + "x" + b.cols + " matrices");
+        return new Matrix(a.rows, a.cols, VectorOps.apply(op, a.data, b.data));
+    }
+
+    /**
+     * Every element `op` a number, with the number first if `scalarFirst`
+     */
+    public static Matrix apply(int op, Matrix a, double b, boolean scalarFirst) {
+        return new Matrix(a.rows, a.cols, VectorOps.apply(op, a.data, b, scalarFirst));
+    }
+
+    public static Matrix multiply(Matrix a, Matrix b) {
+        if (a.cols != b.rows) throw new CasioBasicError("Dimension ERROR: can't multiply " + a.rows + "x" + a.cols + " by " + b.rows + "x" + b.cols);
+        Matrix out = new Matrix(a.rows, b.cols);
+        if ((long) a.rows * a.cols * b.cols < VectorOps.PARALLEL_THRESHOLD) {
+            for (int i = 0; i < a.rows; i++) multiplyRow(a, b, out, i);
+        }
+        else IntStream.range(0, a.rows).parallel().forEach(i -> multiplyRow(a, b, out, i));
+        return out;
+    }
+
+    /**
+     * Row i of a × b. Looping k before j walks b and the output row in
+     * order, so the inner loop is a vectorisable `out += a[i][k] * b[k]`
+     */
+    private static void multiplyRow(Matrix a, Matrix b, Matrix out, int i) {
+        int outRow = i * out.cols;
+        for (int k = 0; k < a.cols; k++) {
+            double aik = a.data[i * a.cols + k];
+            int bRow = k * b.cols;
+            for (int j = 0; j < b.cols; j++) out.data[outRow + j] += aik * b.data[bRow + j];
+        }
+        Decimal.round(out.data, outRow, outRow + out.cols);
+    }
+
+    public String toString() {
+        String out = "[";
+        for (int i = 0; i < rows; i++) {
+            out += "[";
+            for (int j = 0; j < cols; j++) out += (j > 0 ? "," : "") + Environment.format(data[i * cols + j]);
+            out += "]";
+        }
+        return out + "]";
+    }
+}
@@ -1,3 +1,6 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
@@ -5,15 +8,36 @@ import java.util.Queue;
 public class Parser {
     private ASTNode root;
 
+    // The labels defined in each statement list enclosing the current statement, innermost first
+    private Deque<boolean[]> labelScopes = new ArrayDeque<>();
+    // Every `Goto` seen, with the label scopes it can reach
+    private List<Token> gotos = new ArrayList<>();
+    private List<List<boolean[]>> gotoScopes = new ArrayList<>();
+    // Statements numbered so far, see Profiler
+    private int statementCount;
+
     Parser(Queue<Token> tokens) {
+        Events.Parse event = new Events.Parse();
+        event.begin();
+        String file = tokens.isEmpty() ? null : tokens.peek().getLoc().fileName;
+        int tokenCount = tokens.size();
         this.root = parseProgram(tokens);
+        checkGotos();
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = file;
+            event.tokens = tokenCount;
+            event.statements = statementCount;
+            event.commit();
+        }
     }
 
     public ASTNode getRoot() { return root; }
 
-    private void fail(String message) {
-        System.out.println("ERROR: " + message);
-        System.exit(1);
+    public int getStatementCount() { return statementCount; }
+
+    private void fail(TokenLocation loc, String message) {
+        throw new CasioBasicError(loc, message);
     }
 
     private boolean peek(TokenType tokenType, Queue<Token> tokens) {
@@ -28,20 +52,36 @@ public class Parser {
     }
 
     private Token require(TokenType tokenType, String message, Queue<Token> tokens) {
-        if (tokens.isEmpty()) fail(message);
+        if (tokens.isEmpty()) fail(null, message);
         Token token = tokens.poll();
-        if (token.getType() != tokenType) fail(token.getLoc() + " " + message);
+        if (token.getType() != tokenType) fail(token.getLoc(), message);
         return token;
     }
 
 
+    /**
+     * A `Goto` can only jump to a label in its own statement list or one
+     * enclosing it, as that's where the interpreter looks. Labels can come
+     * after the `Goto`, so this is checked once everything is parsed
+     */
+    private void checkGotos() {
+        for (int i = 0; i < gotos.size(); i++) {
+            Token label = gotos.get(i);
+            boolean found = false;
+            for (boolean[] scope : gotoScopes.get(i)) found |= scope[LblNode.index((char) label.getVal())];
+            if (!found) fail(label.getLoc(), "Goto ERROR: no `Lbl " + label.getVal() + "` the `Goto` can reach");
+        }
+    }
+
     /**
      * PROGRAM ::= STATEMENT*
      */
     private ASTNode parseProgram(Queue<Token> tokens) {
         List<ASTNode> nodes = new LinkedList<ASTNode>();
+        labelScopes.push(new boolean[LblNode.COUNT]);
         while (!tokens.isEmpty()) { nodes.add(parseStatement(tokens)); }
-        return new ProgramNode(nodes);
+        labelScopes.pop();
+        return new ProgramNode(nodes, statementCount);
     }
     
     /**
@@ -50,63 +90,342 @@ public class Parser {
      *               FOR |
      *               IF |
      *               VAR_ASSIGN |
-     *               TEXT |
-     *               LOCATE
+     *               LIST_ASSIGN |
+     *               MAT_ASSIGN |
+     *               STR_ASSIGN |
+     *               PRINT |
+     *               LOCATE |
+     *               LBL |
+     *               GOTO |
+     *               JUMP |
+     *               ISZ |
+     *               DSZ |
+     *               PROG |
+     *               `Return` |
+     *               `Break` |
+     *               `Stop` |
+     *               `ClrText` |
+     *               CLR_LIST |
+     *               CLR_MAT |
+     *               GRAPH |
+     *               VIEW_WINDOW |
+     *               `DrawGraph` |
+     *               DISP_F_TBL |
+     *               DISP_R_TBL |
+     *               SEND |
+     *               RECEIVE |
+     *               `OpenComport38k` |
+     *               `CloseComport38k` |
+     *               `ClrGraph`
      */
     private ASTNode parseStatement(Queue<Token> tokens) {
+        TokenLocation loc = tokens.isEmpty() ? null : tokens.peek().getLoc();
         ASTNode body = null;
         if (peek(TokenType.WHILE, tokens))       body = parseWhile(tokens);
         else if (peek(TokenType.DO, tokens))     body = parseDoWhile(tokens);
         else if (peek(TokenType.FOR, tokens))    body = parseFor(tokens);
         else if (peek(TokenType.IF, tokens))     body = parseIf(tokens);
-        else if (peek(TokenType.TEXT, tokens))   body = parseText(tokens);
         else if (peek(TokenType.LOCATE, tokens)) body = parseLocate(tokens);
-        else                                     body = parseVarAssign(tokens);
-        return new StatementNode(body);
+        else if (eat(TokenType.CLEAR_TEXT, tokens)) body = new ClrTextNode();
+        else if (peek(TokenType.LBL, tokens))    body = parseLbl(tokens);
+        else if (peek(TokenType.GOTO, tokens))   body = parseGoto(tokens);
+        else if (eat(TokenType.ISZ, tokens))     body = new IszNode(parseVarName("Isz", tokens));
+        else if (eat(TokenType.DSZ, tokens))     body = new DszNode(parseVarName("Dsz", tokens));
+        else if (peek(TokenType.PROG, tokens))   body = parseProg(tokens);
+        else if (eat(TokenType.RETURN, tokens))  body = new ExitNode(Environment.RETURN, "Return");
+        else if (eat(TokenType.BREAK, tokens))   body = new ExitNode(Environment.BREAK, "Break");
+        else if (eat(TokenType.STOP, tokens))    body = new ExitNode(Environment.STOP, "Stop");
+        else if (peek(TokenType.GRAPH, tokens))  body = parseGraph(tokens);
+        else if (peek(TokenType.VIEW_WINDOW, tokens)) body = parseViewWindow(tokens);
+        else if (peek(TokenType.DISP_F_TBL, tokens)) body = parseTable(tokens);
+        else if (peek(TokenType.DISP_R_TBL, tokens)) body = parseTable(tokens);
+        else if (peek(TokenType.SEND, tokens) || peek(TokenType.SEND_38K, tokens)) body = parseSend(tokens);
+        else if (peek(TokenType.RECEIVE, tokens) || peek(TokenType.RECEIVE_38K, tokens)) body = parseReceive(tokens);
+        else if (eat(TokenType.OPEN_COMPORT, tokens)) body = new ComportNode(true);
+        else if (eat(TokenType.CLOSE_COMPORT, tokens)) body = new ComportNode(false);
+        else if (eat(TokenType.DRAW_GRAPH, tokens)) body = new DrawGraphNode();
+        else if (eat(TokenType.CLR_GRAPH, tokens)) body = new ClrGraphNode();
+        else if (eat(TokenType.CLR_LIST, tokens)) body = new ClrListNode(peek(TokenType.NUM, tokens) ? parseListNum(tokens) : 0);
+        else if (eat(TokenType.CLR_MAT, tokens)) body = new ClrMatNode(peek(TokenType.VAR_NAME, tokens) ? parseVarName("ClrMat", tokens) : 0);
+        else                                     body = parseExprStatement(tokens);
+        return new StatementNode(body, loc, statementCount++);
     }
     
+    /**
+     * Statements that start with an expression
+     */
+    private ASTNode parseExprStatement(Queue<Token> tokens) {
+        ASTNode expr = parseExpression(tokens);
+        if (peek(TokenType.JUMP, tokens)) return parseJump(expr, tokens);
+        if (expr.kind() == ASTNode.STRING && !peek(TokenType.VAR_ASSIGN, tokens)) return new PrintNode(expr);
+        return parseAssign(expr, tokens);
+    }
+
+    /**
+     * LIST_ASSIGN ::= EXPR `->` `List` [1-26] ( `[` EXPR `]` )
+     * MAT_ASSIGN ::= EXPR `->` `Mat` [A-Z] ( `[` EXPR `,` EXPR `]` )
+     * STR_ASSIGN ::= EXPR `->` `Str` [1-20]
+     */
+    private ASTNode parseAssign(ASTNode expr, Queue<Token> tokens) {
+        Token arrow = tokens.peek();
+        if (arrow == null || arrow.getType() != TokenType.VAR_ASSIGN) return parseVarAssign(expr, tokens);
+        tokens.poll();
+        int kind = ASTNode.NUMBER;
+        ASTNode assign;
+        if (eat(TokenType.LIST, tokens)) {
+            int list = parseListNum(tokens);
+            if (eat(TokenType.LBRACKET, tokens)) {
+                assign = new ListElementAssignNode(expr, list, parseExpression(tokens));
+                require(TokenType.RBRACKET, "Missing closing bracket `]` after list index", tokens);
+            } else {
+                kind = ASTNode.LIST;
+                assign = new ListAssignNode(expr, list);
+            }
+        }
+        else if (eat(TokenType.MAT, tokens)) {
+            char name = parseVarName("Mat", tokens);
+            if (eat(TokenType.LBRACKET, tokens)) {
+                ASTNode row = parseExpression(tokens);
+                require(TokenType.COMMA, "Matrix element expects `,` between row and column", tokens);
+                assign = new MatElementAssignNode(expr, name, row, parseExpression(tokens));
+                require(TokenType.RBRACKET, "Missing closing bracket `]` after matrix element", tokens);
+            } else {
+                kind = ASTNode.MATRIX;
+                assign = new MatAssignNode(expr, name);
+            }
+        }
+        else if (eat(TokenType.STR, tokens)) {
+            kind = ASTNode.STRING;
+            assign = new StrAssignNode(expr, parseStrNum(tokens));
+        }
+        else assign = new VarAssignNode(expr, parseVarName("->", tokens));
+        checkKind(arrow.getLoc(), expr, kind);
+        return assign;
+    }
+
     /**
      * VAR_ASSIGN ::= EXPR `->` VAR_NAME
      */
     private ASTNode parseVarAssign(Queue<Token> tokens) {
-        ASTNode expr = parseExpression(tokens);
-        require(TokenType.VAR_ASSIGN, "Variable assigning expects `->`", tokens);
+        return parseVarAssign(parseExpression(tokens), tokens);
+    }
+
+    private ASTNode parseVarAssign(ASTNode expr, Queue<Token> tokens) {
+        Token arrow = require(TokenType.VAR_ASSIGN, "Variable assigning expects `->`", tokens);
         Token varName = require(TokenType.VAR_NAME, "Invalid variable name", tokens);
+        checkKind(arrow.getLoc(), expr, ASTNode.NUMBER);
         return new VarAssignNode(expr, (char) varName.getVal());
     }
 
+    private static final String[] KINDS = { "a number", "a list", "a matrix", "a string" };
+
+    /**
+     * Whether a number, list or matrix is known from the syntax, so a
+     * mismatch is reported before the program runs
+     */
+    private void checkKind(TokenLocation loc, ASTNode expr, int kind) {
+        if (expr.kind() != kind) fail(loc, "Argument ERROR: expects " + KINDS[kind] + ", got " + KINDS[expr.kind()]);
+    }
+
+    /**
+     * The value of a whole NUM token, or -1 for a decimal
+     */
+    private static int wholeNum(Token num) {
+        return num.getVal() instanceof Integer ? (int) num.getVal() : -1;
+    }
+
+    /**
+     * STR_NUM ::= [1-20]
+     */
+    private int parseStrNum(Queue<Token> tokens) {
+        Token num = require(TokenType.NUM, "`Str` expects a string number 1-20", tokens);
+        int str = wholeNum(num);
+        if (str < 1 || str > 20) fail(num.getLoc(), "`Str` expects a string number 1-20");
+        return str;
+    }
+
+    /**
+     * LIST_NUM ::= [1-26]
+     */
+    private int parseListNum(Queue<Token> tokens) {
+        Token num = require(TokenType.NUM, "`List` expects a list number 1-26", tokens);
+        int list = wholeNum(num);
+        if (list < 1 || list > 26) fail(num.getLoc(), "`List` expects a list number 1-26");
+        return list;
+    }
+
+    /**
+     * JUMP ::= EXPR `=>` STATEMENT
+     */
+    private ASTNode parseJump(ASTNode condition, Queue<Token> tokens) {
+        require(TokenType.JUMP, "Invalid jump, expects `=>`", tokens);
+        if (tokens.isEmpty()) fail(null, "Jump expects a statement after `=>`");
+        return new JumpNode(condition, parseStatement(tokens));
+    }
+
+    /**
+     * LABEL ::= [0-9A-Z]
+     */
+    private Token parseLabel(String command, Queue<Token> tokens) {
+        if (tokens.isEmpty()) fail(null, "`" + command + "` expects a label");
+        Token label = tokens.poll();
+        if (label.getType() == TokenType.VAR_NAME) return label;
+        if (label.getType() == TokenType.NUM && wholeNum(label) >= 0 && wholeNum(label) <= 9) {
+            return new Token(TokenType.NUM, label.getLoc(), (char) ('0' + (int) label.getVal()));
+        }
+        fail(label.getLoc(), "`" + command + "` expects a label 0-9 or A-Z");
+        return null;
+    }
+
+    /**
+     * LBL ::= `Lbl` LABEL
+     */
+    private ASTNode parseLbl(Queue<Token> tokens) {
+        require(TokenType.LBL, "Invalid identifier in label, expects `Lbl`", tokens);
+        char label = (char) parseLabel("Lbl", tokens).getVal();
+        labelScopes.peek()[LblNode.index(label)] = true;
+        return new LblNode(label);
+    }
+
+    /**
+     * GOTO ::= `Goto` LABEL
+     */
+    private ASTNode parseGoto(Queue<Token> tokens) {
+        require(TokenType.GOTO, "Invalid identifier in goto, expects `Goto`", tokens);
+        Token label = parseLabel("Goto", tokens);
+        gotos.add(label);
+        gotoScopes.add(new ArrayList<>(labelScopes));
+        return new GotoNode((char) label.getVal());
+    }
+
+    /**
+     * ISZ ::= `Isz` VAR_NAME
+     * DSZ ::= `Dsz` VAR_NAME
+     */
+    private char parseVarName(String command, Queue<Token> tokens) {
+        return (char) require(TokenType.VAR_NAME, "`" + command + "` expects a variable name", tokens).getVal();
+    }
+
+    /**
+     * PROG ::= `Prog` TEXT
+     */
+    private ASTNode parseProg(Queue<Token> tokens) {
+        require(TokenType.PROG, "Invalid identifier in program call, expects `Prog`", tokens);
+        Token name = require(TokenType.TEXT, "`Prog` expects a program name in quotes", tokens);
+        return new ProgNode((String) name.getVal());
+    }
+
+    /**
+     * GRAPH ::= `Graph` `Y` `=` EXPR
+     */
+    private ASTNode parseGraph(Queue<Token> tokens) {
+        Token start = require(TokenType.GRAPH, "Invalid identifier in graph, expects `Graph`", tokens);
+        Token y = require(TokenType.VAR_NAME, "`Graph` expects `Y=`", tokens);
+        if ((char) y.getVal() != 'Y') fail(y.getLoc(), "`Graph` expects `Y=`");
+        require(TokenType.EQ_TO, "`Graph` expects `Y=`", tokens);
+        ASTNode expr = parseExpression(tokens);
+        checkKind(start.getLoc(), expr, ASTNode.NUMBER);
+        return new GraphNode(expr);
+    }
+
+    /**
+     * DISP_F_TBL ::= `DispF-Tbl` `Y` `=` EXPR `,` EXPR `,` EXPR `,` EXPR
+     * DISP_R_TBL ::= `DispR-Tbl` `A` `=` EXPR `,` EXPR `,` EXPR `,` EXPR
+     */
+    private ASTNode parseTable(Queue<Token> tokens) {
+        Token start = tokens.poll();
+        boolean recurrence = start.getType() == TokenType.DISP_R_TBL;
+        String command = (String) start.getVal();
+        char target = recurrence ? 'A' : 'Y';
+        Token name = require(TokenType.VAR_NAME, "`" + command + "` expects `" + target + "=`", tokens);
+        if ((char) name.getVal() != target) fail(name.getLoc(), "`" + command + "` expects `" + target + "=`");
+        require(TokenType.EQ_TO, "`" + command + "` expects `" + target + "=`", tokens);
+        ASTNode[] args = new ASTNode[4];
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) require(TokenType.COMMA, recurrence ? "`DispR-Tbl` expects A=expression, first term, start, end" : "`DispF-Tbl` expects Y=expression, start, end, step", tokens);
+            args[i] = parseExpression(tokens);
+            checkKind(start.getLoc(), args[i], ASTNode.NUMBER);
+        }
+        if (recurrence) return new RecurrenceTableNode(args[0], args[1], args[2], args[3]);
+        return new FunctionTableNode(args[0], args[1], args[2], args[3]);
+    }
+
+    /**
+     * SEND ::= `Send(` EXPR `)` |
+     *          `Send38k` EXPR
+     */
+    private ASTNode parseSend(Queue<Token> tokens) {
+        Token start = tokens.poll();
+        boolean comport = start.getType() == TokenType.SEND_38K;
+        if (!comport) require(TokenType.LPAREN, "`Send` expects `(`", tokens);
+        ASTNode expr = parseExpression(tokens);
+        if (!comport) require(TokenType.RPAREN, "Missing closing parenthesis ')' after `Send(`", tokens);
+        return new SendNode(expr, comport);
+    }
+
+    /**
+     * RECEIVE ::= `Receive(` TARGET `)` |
+     *             `Receive38k` TARGET
+     * TARGET ::= VAR_NAME | `List` [1-26] | `Mat` [A-Z] | `Str` [1-20]
+     */
+    private ASTNode parseReceive(Queue<Token> tokens) {
+        Token start = tokens.poll();
+        boolean comport = start.getType() == TokenType.RECEIVE_38K;
+        if (!comport) require(TokenType.LPAREN, "`Receive` expects `(`", tokens);
+        ASTNode node;
+        if (eat(TokenType.LIST, tokens))     node = new ReceiveNode(ASTNode.LIST, parseListNum(tokens), comport);
+        else if (eat(TokenType.MAT, tokens)) node = new ReceiveNode(ASTNode.MATRIX, parseVarName("Mat", tokens) - 'A', comport);
+        else if (eat(TokenType.STR, tokens)) node = new ReceiveNode(ASTNode.STRING, parseStrNum(tokens), comport);
+        else node = new ReceiveNode(ASTNode.NUMBER, parseVarName(start.getVal().toString(), tokens) - 'A', comport);
+        if (!comport) require(TokenType.RPAREN, "Missing closing parenthesis ')' after `Receive(`", tokens);
+        return node;
+    }
+
+    /**
+     * VIEW_WINDOW ::= `ViewWindow` EXPR `,` EXPR `,` EXPR `,` EXPR `,` EXPR `,` EXPR
+     */
+    private ASTNode parseViewWindow(Queue<Token> tokens) {
+        require(TokenType.VIEW_WINDOW, "Invalid identifier in view window, expects `ViewWindow`", tokens);
+        ASTNode[] args = new ASTNode[6];
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) require(TokenType.COMMA, "`ViewWindow` expects Xmin, Xmax, Xscl, Ymin, Ymax, Yscl", tokens);
+            args[i] = parseExpression(tokens);
+        }
+        return new ViewWindowNode(args);
+    }
+
     /**
      * WHILE ::= `While` EXPR BODY `WhileEnd`
      */
     private ASTNode parseWhile(Queue<Token> tokens) {
-        require(TokenType.WHILE, "Invalid identifier in while block, expects `While`", tokens);
+        Token start = require(TokenType.WHILE, "Invalid identifier in while block, expects `While`", tokens);
         ASTNode expr = parseExpression(tokens);
         ASTNode body = parseBody(TokenType.WHILE_END, "WhileEnd", tokens);
-        return new WhileNode(expr, body);
+        return new WhileNode(expr, body, start.getLoc());
     }
 
     /**
      * DO_WHILE ::= `Do` BODY `LpWhile` EXPR
      */
     private ASTNode parseDoWhile(Queue<Token> tokens) {
-        require(TokenType.DO, "Invalid identifier in do-while block, expects `Do`", tokens);
+        Token start = require(TokenType.DO, "Invalid identifier in do-while block, expects `Do`", tokens);
         ASTNode body = parseBody(TokenType.LP_WHILE, "LpWhile", tokens);
         ASTNode expr = parseExpression(tokens);
-        return new DoWhileNode(expr, body);
+        return new DoWhileNode(expr, body, start.getLoc());
     }
     
     /**
      * FOR ::= `For` VAR_ASSIGN `To` EXPR ( `Step` EXPR ) BODY `Next`
      */
     private ASTNode parseFor(Queue<Token> tokens) {
-        require(TokenType.FOR, "Invalid identifier in for block, expects `For`", tokens);
+        Token start = require(TokenType.FOR, "Invalid identifier in for block, expects `For`", tokens);
         ASTNode var = parseVarAssign(tokens);
         require(TokenType.TO, "Invalid identifier in for block, expects `To`", tokens);
         ASTNode toExpr = parseExpression(tokens);
         ASTNode stepExpr = null;
         if (eat(TokenType.STEP, tokens)) stepExpr = parseExpression(tokens);
         ASTNode body = parseBody(TokenType.NEXT, "Next", tokens);
-        return new ForNode(var, toExpr, stepExpr, body);
+        return new ForNode(var, toExpr, stepExpr, body, start.getLoc());
     }
     
     /**
@@ -118,15 +437,19 @@ public class Parser {
         require(TokenType.THEN, "Invalid identifier in if block, expects `Then`", tokens);
         
         List<ASTNode> ifStatements = new LinkedList<ASTNode>();
+        labelScopes.push(new boolean[LblNode.COUNT]);
         // Parse body until `Else` or `EndIf`
-        while (!peek(TokenType.ELSE, tokens) && !eat(TokenType.IF_END, tokens)) {
+        boolean ended = false;
+        while (!peek(TokenType.ELSE, tokens) && !(ended = eat(TokenType.IF_END, tokens))) {
             // If we are at the end, require a `EndIf`
-            if (tokens.size() == 1) { require(TokenType.IF_END, "Body expects `IfEnd` at the end, but received nothing", tokens); break; }
+            if (tokens.size() <= 1) { require(TokenType.IF_END, "Body expects `IfEnd` at the end, but received nothing", tokens); ended = true; break; }
             ifStatements.add(parseStatement(tokens));
         }
+        labelScopes.pop();
         ASTNode ifBody = new BodyNode(ifStatements);
         ASTNode elseBody = null;
-        if (eat(TokenType.ELSE, tokens)) {
+        // An `Else` after this If's `IfEnd` belongs to an enclosing If
+        if (!ended && eat(TokenType.ELSE, tokens)) {
             elseBody = parseBody(TokenType.IF_END, "IfEnd", tokens);
         }
         return new IfNode(condition, ifBody, elseBody);
@@ -137,13 +460,15 @@ public class Parser {
      */
     private ASTNode parseBody(TokenType end, String endString, Queue<Token> tokens) {
         List<ASTNode> body = new LinkedList<ASTNode>();
+        labelScopes.push(new boolean[LblNode.COUNT]);
         while (!eat(end, tokens)) {
-            if (tokens.size() == 1) {
+            if (tokens.size() <= 1) {
                 require(end, "Body expects `" + endString + "` at the end, but received nothing", tokens);
                 break;
             }
             body.add(parseStatement(tokens));
         }
+        labelScopes.pop();
         return new BodyNode(body);
     }
 
@@ -152,14 +477,13 @@ public class Parser {
      *            `Locate` EXPR `,` EXPR `,` EXPR
      */
     private ASTNode parseLocate(Queue<Token> tokens) {
-        require(TokenType.LOCATE, "Invalid identifier in locate statement, expects `Locate`", tokens);
+        Token start = require(TokenType.LOCATE, "Invalid identifier in locate statement, expects `Locate`", tokens);
         ASTNode x = parseExpression(tokens);
         require(TokenType.COMMA, "Expects `,` between arguments in `Locate` statement", tokens);
         ASTNode y = parseExpression(tokens);
         require(TokenType.COMMA, "Expects `,` between arguments in `Locate` statement", tokens);
-        ASTNode value = null;
-        if (peek(TokenType.TEXT, tokens)) value = parseText(tokens);
-        else                              value = parseExpression(tokens);
+        ASTNode value = parseExpression(tokens);
+        if (value.kind() != ASTNode.NUMBER) checkKind(start.getLoc(), value, ASTNode.STRING);
         return new LocateNode(x, y, value);
     }
     
@@ -259,14 +583,63 @@ public class Parser {
      *            `(` EXPR `)` |
      *            NUMBER |
      *            VAR_NAME |
-     *            `Getkey`
+     *            `Getkey` |
+     *            `{` EXPR ( `,` EXPR )* `}` |
+     *            `[` ( `[` EXPR ( `,` EXPR )* `]` )+ `]` |
+     *            `List` [1-26] ( `[` EXPR `]` ) |
+     *            `Mat` [A-Z] ( `[` EXPR `,` EXPR `]` ) |
+     *            `Sum` FACTOR |
+     *            `Prod` FACTOR |
+     *            `Dim` FACTOR |
+     *            TEXT |
+     *            `Str` [1-20] |
+     *            STR_FUNCTION
      */
     private ASTNode parseFactor(Queue<Token> tokens) {
         ASTNode node = null;
         if (eat(TokenType.PLUS, tokens))           node = new PlusUnaryOpNode(parseFactor(tokens));
         else if (eat(TokenType.MINUS, tokens))     node = new MinusUnaryOpNode(parseFactor(tokens));
         else if (peek(TokenType.VAR_NAME, tokens)) node = new VarEvaluateNode((char) tokens.poll().getVal());
-        else if (peek(TokenType.GET_KEY, tokens))  node = new GetKeyNode();
+        else if (eat(TokenType.GET_KEY, tokens))   node = new GetKeyNode();
+        else if (peek(TokenType.TEXT, tokens))     node = parseText(tokens);
+        else if (eat(TokenType.STR, tokens))       node = new StrNode(parseStrNum(tokens));
+        else if (!tokens.isEmpty() && StrFunctionNode.signature(tokens.peek().getType()) != null) node = parseStrFunction(tokens);
+        else if (peek(TokenType.LBRACE, tokens))   node = parseListLiteral(tokens);
+        else if (peek(TokenType.LBRACKET, tokens)) node = parseMatLiteral(tokens);
+        else if (eat(TokenType.LIST, tokens)) {
+            int list = parseListNum(tokens);
+            if (!eat(TokenType.LBRACKET, tokens)) node = new ListNode(list);
+            else {
+                node = new ListElementNode(list, parseExpression(tokens));
+                require(TokenType.RBRACKET, "Missing closing bracket `]` after list index", tokens);
+            }
+        }
+        else if (eat(TokenType.MAT, tokens)) {
+            char name = parseVarName("Mat", tokens);
+            if (!eat(TokenType.LBRACKET, tokens)) node = new MatNode(name);
+            else {
+                ASTNode row = parseExpression(tokens);
+                require(TokenType.COMMA, "Matrix element expects `,` between row and column", tokens);
+                node = new MatElementNode(name, row, parseExpression(tokens));
+                require(TokenType.RBRACKET, "Missing closing bracket `]` after matrix element", tokens);
+            }
+        }
+        else if (peek(TokenType.SUM, tokens)) {
+            Token sum = tokens.poll();
+            node = new SumListNode(parseFactor(tokens));
+            checkKind(sum.getLoc(), ((SumListNode) node).getList(), ASTNode.LIST);
+        }
+        else if (peek(TokenType.PROD, tokens)) {
+            Token prod = tokens.poll();
+            node = new ProdListNode(parseFactor(tokens));
+            checkKind(prod.getLoc(), ((ProdListNode) node).getList(), ASTNode.LIST);
+        }
+        else if (peek(TokenType.DIM, tokens)) {
+            Token dim = tokens.poll();
+            ASTNode value = parseFactor(tokens);
+            if (value.kind() == ASTNode.NUMBER) fail(dim.getLoc(), "Argument ERROR: `Dim` expects a list or a matrix");
+            node = new DimNode(value);
+        }
         else if (eat(TokenType.LPAREN, tokens)) {
             node = parseExpression(tokens);
             require(TokenType.RPAREN, "Missing closing parenthesis ')' after expression", tokens);
@@ -276,11 +649,70 @@ public class Parser {
     }
     
     /**
-     * NUMBER ::= [0-9]+
+     * STR_FUNCTION ::= ( `StrJoin` | `StrMid` | ... ) `(` EXPR ( `,` EXPR )* `)`
+     */
+    private ASTNode parseStrFunction(Queue<Token> tokens) {
+        Token function = tokens.poll();
+        String name = (String) function.getVal();
+        boolean[] strings = StrFunctionNode.signature(function.getType());
+        require(TokenType.LPAREN, "`" + name + "` expects `(`", tokens);
+        List<ASTNode> args = new ArrayList<>();
+        do {
+            if (args.size() == strings.length) fail(function.getLoc(), "`" + name + "` takes at most " + strings.length + " arguments");
+            ASTNode arg = parseExpression(tokens);
+            checkKind(function.getLoc(), arg, strings[args.size()] ? ASTNode.STRING : ASTNode.NUMBER);
+            args.add(arg);
+        } while (eat(TokenType.COMMA, tokens));
+        require(TokenType.RPAREN, "Missing closing parenthesis ')' after `" + name + "`", tokens);
+        if (args.size() < strings.length - StrFunctionNode.optional(function.getType())) {
+            fail(function.getLoc(), "`" + name + "` expects " + (strings.length - StrFunctionNode.optional(function.getType())) + " arguments");
+        }
+        return new StrFunctionNode(function.getType(), name, args);
+    }
+
+    /**
+     * LIST_LITERAL ::= `{` EXPR ( `,` EXPR )* `}`
+     */
+    private ASTNode parseListLiteral(Queue<Token> tokens) {
+        require(TokenType.LBRACE, "List expects `{`", tokens);
+        List<ASTNode> items = new ArrayList<>();
+        do {
+            ASTNode item = parseExpression(tokens);
+            checkKind(tokens.isEmpty() ? null : tokens.peek().getLoc(), item, ASTNode.NUMBER);
+            items.add(item);
+        } while (eat(TokenType.COMMA, tokens));
+        require(TokenType.RBRACE, "Missing closing brace `}` after list", tokens);
+        return new ListLiteralNode(items);
+    }
+
+    /**
+     * MAT_LITERAL ::= `[` ( `[` EXPR ( `,` EXPR )* `]` )+ `]`
+     */
+    private ASTNode parseMatLiteral(Queue<Token> tokens) {
+        Token start = require(TokenType.LBRACKET, "Matrix expects `[`", tokens);
+        List<ASTNode[]> rows = new ArrayList<>();
+        do {
+            require(TokenType.LBRACKET, "Matrix expects each row in `[` `]`", tokens);
+            List<ASTNode> row = new ArrayList<>();
+            do {
+                ASTNode item = parseExpression(tokens);
+                checkKind(tokens.isEmpty() ? null : tokens.peek().getLoc(), item, ASTNode.NUMBER);
+                row.add(item);
+            } while (eat(TokenType.COMMA, tokens));
+            require(TokenType.RBRACKET, "Missing closing bracket `]` after matrix row", tokens);
+            if (!rows.isEmpty() && row.size() != rows.get(0).length) fail(start.getLoc(), "Dimension ERROR: matrix rows differ in length");
+            rows.add(row.toArray(new ASTNode[0]));
+        } while (peek(TokenType.LBRACKET, tokens));
+        require(TokenType.RBRACKET, "Missing closing bracket `]` after matrix", tokens);
+        return new MatLiteralNode(rows.toArray(new ASTNode[0][]));
+    }
+
+    /**
+     * NUMBER ::= [0-9]* ( `.` [0-9]* ) ( `E` ( `+` | `-` ) [0-9]+ )
      */
     private ASTNode parseNumber(Queue<Token> tokens) {
         Token token = require(TokenType.NUM, "Expects a number", tokens);
-        return new NumberNode((int) token.getVal());
+        return new NumberNode(((Number) token.getVal()).doubleValue());
     }
 
     /**
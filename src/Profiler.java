@@ -0,0 +1,115 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Counts how often each statement runs and how long it takes, for finding
+ * the hot lines of a program
+ *
+ * Statements are numbered densely as each program is parsed, so the
+ * counters are plain arrays indexed by statement. Every program that runs
+ * (the main one and each `Prog` it calls) gets its own range of the arrays
+ * the first time it is entered. Time is measured around every statement and
+ * split into total and self, which leaves out the statements nested inside.
+ * A run without a profiler pays one null check per statement and loop
+ */
+public class Profiler {
+    // Where each program's statements start in the counters
+    private IdentityHashMap<ProgramNode, Integer> bases = new IdentityHashMap<>();
+    private int base;
+    private int size;
+
+    private StatementNode[] statements = new StatementNode[64];
+    private long[] runs = new long[64];
+    // Iterations of a loop, or how often an If took Then
+    private long[] passes = new long[64];
+    private long[] totalNanos = new long[64];
+    private long[] selfNanos = new long[64];
+
+    // The statements being run, innermost last, with when they started and
+    // how long the statements nested in them took so far
+    private int[] stack = new int[16];
+    private long[] starts = new long[16];
+    private long[] childNanos = new long[16];
+    private int depth;
+
+    /**
+     * Switches the counters to a program that is starting, returning the
+     * one to switch back to when it ends
+     */
+    int enterProgram(ProgramNode program, int statementCount) {
+        Integer programBase = bases.get(program);
+        if (programBase == null) {
+            programBase = size;
+            bases.put(program, programBase);
+            size += statementCount;
+            if (size > runs.length) {
+                int length = Math.max(runs.length * 2, size);
+                statements = Arrays.copyOf(statements, length);
+                runs = Arrays.copyOf(runs, length);
+                passes = Arrays.copyOf(passes, length);
+                totalNanos = Arrays.copyOf(totalNanos, length);
+                selfNanos = Arrays.copyOf(selfNanos, length);
+            }
+        }
+        int outer = base;
+        base = programBase;
+        return outer;
+    }
+
+    void exitProgram(int outer) { base = outer; }
+
+    void enter(StatementNode statement) {
+        int slot = base + statement.getId();
+        statements[slot] = statement;
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+            starts = Arrays.copyOf(starts, depth * 2);
+            childNanos = Arrays.copyOf(childNanos, depth * 2);
+        }
+        stack[depth] = slot;
+        childNanos[depth] = 0;
+        starts[depth++] = System.nanoTime();
+    }
+
+    void exit() {
+        long nanos = System.nanoTime() - starts[--depth];
+        int slot = stack[depth];
+        runs[slot]++;
+        totalNanos[slot] += nanos;
+        selfNanos[slot] += nanos - childNanos[depth];
+        if (depth > 0) childNanos[depth - 1] += nanos;
+    }
+
+    /**
+     * Counts a pass of the statement being run: a loop going round again,
+     * or an If taking Then
+     */
+    void pass() { passes[stack[depth - 1]]++; }
+
+    /**
+     * The `limit` statements with the most self time, hottest first
+     */
+    public String report(int limit) {
+        List<Integer> hot = new ArrayList<>();
+        long nanos = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (runs[slot] == 0) continue;
+            hot.add(slot);
+            nanos += selfNanos[slot];
+        }
+        hot.sort((a, b) -> Long.compare(selfNanos[b], selfNanos[a]));
+
+        StringBuilder out = new StringBuilder(String.format("%-24s %10s %10s %10s %10s %6s  %s%n", "LOCATION", "RUNS", "PASSES", "TOTAL ms", "SELF ms", "SELF", "STATEMENT"));
+        for (int slot : hot.subList(0, Math.min(limit, hot.size()))) {
+            String code = statements[slot].toString();
+            if (code.indexOf('\n') >= 0) code = code.substring(0, code.indexOf('\n'));
+            if (code.length() > 40) code = code.substring(0, 37) + "...";
+            out.append(String.format("%-24s %10d %10s %10.3f %10.3f %5.1f%%  %s%n",
+                                     statements[slot].getLoc(), runs[slot], passes[slot] == 0 ? "" : passes[slot] + "",
+                                     totalNanos[slot] / 1e6, selfNanos[slot] / 1e6, nanos == 0 ? 0 : 100.0 * selfNanos[slot] / nanos, code));
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,49 @@
+import java.io.File;
+import java.util.regex.Pattern;
+
+/**
+ * The subprograms `Prog "NAME"` can call, one `NAME.cb` file each in a
+ * directory. A subprogram is only read and compiled the first time it is
+ * called; after that the compiled tree comes from a bounded LRU cache, so
+ * calls in a loop never re-parse anything. Shared by every run of an engine
+ */
+public class ProgramLibrary {
+    // The calculator's program names, which also keeps `Prog` inside the directory
+    private static final Pattern NAME = Pattern.compile("[A-Z0-9~]{1,8}");
+
+    private Engine engine;
+    private File dir;
+    private LruCache<String, ASTNode> programs;
+
+    ProgramLibrary(Engine engine, File dir, int capacity) {
+        this.engine = engine;
+        this.dir = dir;
+        this.programs = new LruCache<>(capacity);
+    }
+
+    /**
+     * The compiled subprogram called `name`. Fails with the compile error if
+     * it doesn't exist or doesn't compile, or if the name isn't 1 to 8 of
+     * A-Z, 0-9 and ~
+     */
+    public ASTNode load(String name) {
+        if (!NAME.matcher(name).matches()) throw new CasioBasicError("Go ERROR: invalid program name \"" + name + "\"");
+        ASTNode program = programs.get(name);
+        if (program != null) return program;
+
+        File file = new File(dir, name + ".cb");
+        if (!file.isFile()) throw new CasioBasicError("Go ERROR: no program \"" + name + "\" in " + dir);
+        Engine.CompileResult compiled = engine.compile(file);
+        if (!compiled.isOk()) {
+            Diagnostic error = compiled.getDiagnostics().get(0);
+            throw new CasioBasicError(error.getLoc(), error.getMessage());
+        }
+        // Two threads may compile the same program at once, either tree will do
+        programs.put(name, compiled.getProgram());
+        return compiled.getProgram();
+    }
+
+    public int size() { return programs.size(); }
+    public long getHits() { return programs.getHits(); }
+    public long getMisses() { return programs.getMisses(); }
+}
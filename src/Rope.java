@@ -0,0 +1,188 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable string built from slices of other strings
+ *
+ * Taking part of a rope, joining two ropes, rotating and shifting all share
+ * the characters that are already there instead of copying them. Characters
+ * are only copied when the rope is turned into a `String`, which is cached
+ */
+public abstract class Rope implements CharSequence {
+    // Short pieces are cheaper to copy than to keep as separate nodes
+    static final int MERGE_LENGTH = 32;
+    // Deeper ropes are rebuilt as a balanced tree of their pieces
+    static final int MAX_DEPTH = 48;
+
+    static final Rope EMPTY = new Slice("", 0, 0);
+
+    private String flat;
+
+    public static Rope of(CharSequence text) {
+        if (text instanceof Rope) return (Rope) text;
+        String s = text.toString();
+        return s.isEmpty() ? EMPTY : new Slice(s, 0, s.length());
+    }
+
+    abstract int depth();
+
+    /**
+     * Copies the characters [start, end) into out
+     */
+    abstract void appendTo(StringBuilder out, int start, int end);
+
+    abstract void collect(List<Slice> pieces);
+
+    public abstract Rope subSequence(int start, int end);
+
+    public String toString() {
+        if (flat == null) {
+            StringBuilder out = new StringBuilder(length());
+            appendTo(out, 0, length());
+            flat = out.toString();
+        }
+        return flat;
+    }
+
+    public Rope concat(Rope other) {
+        if (other.length() == 0) return this;
+        if (length() == 0) return other;
+        // Appending a little at a time in a loop keeps extending the last piece
+        if (other.length() < MERGE_LENGTH) {
+            if (this instanceof Slice && length() < MERGE_LENGTH) return new Slice(toString() + other, 0, length() + other.length());
+            if (this instanceof Concat) {
+                Concat c = (Concat) this;
+                if (c.right instanceof Slice && c.right.length() < MERGE_LENGTH) return join(c.left, c.right.concat(other));
+            }
+        }
+        return join(this, other);
+    }
+
+    private static Rope join(Rope left, Rope right) {
+        Rope rope = new Concat(left, right);
+        if (rope.depth() <= MAX_DEPTH) return rope;
+        List<Slice> pieces = new ArrayList<>();
+        rope.collect(pieces);
+        return balance(pieces, 0, pieces.size());
+    }
+
+    private static Rope balance(List<Slice> pieces, int from, int to) {
+        if (to - from == 1) return pieces.get(from);
+        int mid = (from + to) >>> 1;
+        return new Concat(balance(pieces, from, mid), balance(pieces, mid, to));
+    }
+
+    /**
+     * Moves the first n characters to the end, or the last -n to the front
+     */
+    public Rope rotate(int n) {
+        if (length() == 0) return this;
+        n = Math.floorMod(n, length());
+        return subSequence(n, length()).concat(subSequence(0, n));
+    }
+
+    /**
+     * Drops n characters from the front and pads the end with spaces, or
+     * the other way around when n is negative
+     */
+    public Rope shift(int n) {
+        int count = Math.min(Math.abs(n), length());
+        Rope spaces = of(" ".repeat(count));
+        if (n >= 0) return subSequence(count, length()).concat(spaces);
+        return spaces.concat(subSequence(0, length() - count));
+    }
+
+    /**
+     * The 0 based position of target at or after from, or -1
+     */
+    public int indexOf(CharSequence target, int from) {
+        return toString().indexOf(target.toString(), from);
+    }
+
+    public static int compare(CharSequence a, CharSequence b) {
+        int n = Math.min(a.length(), b.length());
+        for (int i = 0; i < n; i++) {
+            char x = a.charAt(i), y = b.charAt(i);
+            if (x != y) return x < y ? -1 : 1;
+        }
+        return Integer.compare(a.length(), b.length());
+    }
+
+    static final class Slice extends Rope {
+        private final String base;
+        private final int offset;
+        private final int length;
+
+        Slice(String base, int offset, int length) {
+            this.base = base;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int length() { return length; }
+
+        public char charAt(int index) { return base.charAt(offset + index); }
+
+        public Rope subSequence(int start, int end) {
+            if (start == 0 && end == length) return this;
+            if (start == end) return EMPTY;
+            return new Slice(base, offset + start, end - start);
+        }
+
+        int depth() { return 0; }
+
+        void appendTo(StringBuilder out, int start, int end) { out.append(base, offset + start, offset + end); }
+
+        void collect(List<Slice> pieces) { pieces.add(this); }
+    }
+
+    static final class Concat extends Rope {
+        private final Rope left;
+        private final Rope right;
+        private final int length;
+        private final int depth;
+
+        Concat(Rope left, Rope right) {
+            this.left = left;
+            this.right = right;
+            this.length = left.length() + right.length();
+            this.depth = Math.max(left.depth(), right.depth()) + 1;
+        }
+
+        public int length() { return length; }
+
+        public char charAt(int index) {
+            Rope rope = this;
+            while (rope instanceof Concat) {
+                Concat c = (Concat) rope;
+                if (index < c.left.length()) rope = c.left;
+                else {
+                    index -= c.left.length();
+                    rope = c.right;
+                }
+            }
+            return rope.charAt(index);
+        }
+
+        public Rope subSequence(int start, int end) {
+            if (start == 0 && end == length) return this;
+            int split = left.length();
+            if (end <= split) return left.subSequence(start, end);
+            if (start >= split) return right.subSequence(start - split, end - split);
+            return left.subSequence(start, split).concat(right.subSequence(0, end - split));
+        }
+
+        int depth() { return depth; }
+
+        void appendTo(StringBuilder out, int start, int end) {
+            int split = left.length();
+            if (start < split) left.appendTo(out, start, Math.min(end, split));
+            if (end > split) right.appendTo(out, Math.max(start - split, 0), end - split);
+        }
+
+        void collect(List<Slice> pieces) {
+            left.collect(pieces);
+            right.collect(pieces);
+        }
+    }
+}
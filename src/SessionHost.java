@@ -0,0 +1,204 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs many independent programs at once, one thread per session. Sessions
+ * share the compiled (immutable) tree but each has its own environment, key
+ * buffer and output.
+ *
+ * Sessions run on virtual threads when the JVM has them (Java 21+) and fall
+ * back to platform threads otherwise. Nothing on a session's path holds a
+ * monitor while it waits, so a session that parks gives its carrier thread
+ * back instead of pinning it.
+ *
+ * `Getkey` never blocks by default, as on the calculator, so a program
+ * waiting for a key keeps its thread busy. Hosts running many such sessions
+ * can `setParkWhenIdle(true)` to trade that for a `Getkey` that may wait up
+ * to a frame (16ms) once a program has found no key for a while
+ */
+public class SessionHost {
+    private static ThreadFactory virtualThreads = virtualThreadFactory();
+
+    private Engine engine;
+    private AtomicInteger active = new AtomicInteger();
+    private AtomicInteger nextId = new AtomicInteger();
+    private volatile boolean parkWhenIdle;
+
+    SessionHost(Engine engine) { this.engine = engine; }
+
+    /**
+     * Lets sessions park in `Getkey` when their program keeps finding no
+     * key, instead of polling at full speed. Off by default
+     */
+    public void setParkWhenIdle(boolean parkWhenIdle) { this.parkWhenIdle = parkWhenIdle; }
+
+    /**
+     * Thread.ofVirtual().factory(), looked up reflectively so this still
+     * compiles and runs on Java 17. Null if there are no virtual threads
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public static boolean usesVirtualThreads() { return virtualThreads != null; }
+
+    /**
+     * Starts running the program in a new session
+     */
+    public Session start(Engine.CompileResult program) { return start(program, null); }
+
+    /**
+     * Starts a new session that carries on from a snapshot taken with
+     * `Session.suspend(long)`, here or in another host
+     */
+    public Session resume(Engine.CompileResult program, byte[] snapshot) { return start(program, snapshot); }
+
+    private Session start(Engine.CompileResult program, byte[] snapshot) {
+        Session session = new Session(nextId.incrementAndGet(), program);
+        // Restored here so a bad snapshot fails the call rather than the session
+        if (snapshot != null) Snapshot.restore(program, snapshot, session.env);
+        active.incrementAndGet();
+        engine.getMetrics().activeSessions.increment();
+        if (virtualThreads != null) session.thread = virtualThreads.newThread(session::run);
+        else {
+            session.thread = Executors.defaultThreadFactory().newThread(session::run);
+            session.thread.setDaemon(true);
+        }
+        session.thread.start();
+        return session;
+    }
+
+    public int getActiveSessions() { return active.get(); }
+
+    /**
+     * A single running program. Keys are pushed with `press()` from any
+     * thread, and the program's output is collected until `takeOutput()`
+     */
+    class Session implements KeySource {
+        // Getkey polls this many times in a row before the session parks
+        private static final int SPINS = 64;
+        // Parks start at MIN_PARK_NANOS and double up to MAX_PARK_NANOS, about a frame
+        private static final long MIN_PARK_NANOS = 100_000;
+        private static final long MAX_PARK_NANOS = 16_000_000;
+
+        private int id;
+        private Engine.CompileResult program;
+        private Environment env = new Environment();
+        private Thread thread;
+        private KeyBuffer keys = new KeyBuffer(64);
+        private ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private int emptyPolls;
+        private long parkNanos = MIN_PARK_NANOS;
+        private Budget budget = engine.newBudget();
+        private volatile Engine.RunResult result;
+
+        Session(int id, Engine.CompileResult program) {
+            this.id = id;
+            this.program = program;
+        }
+
+        private void run() {
+            try {
+                env.setDisplaySink(new TerminalSink(new PrintStream(output, false, StandardCharsets.UTF_8)));
+                env.setKeySource(this);
+                env.setBudget(budget);
+                result = engine.run(program, env);
+            } catch (RuntimeException e) {
+                result = new Engine.RunResult("", new double[26], List.of(new Diagnostic(Diagnostic.Stage.RUN, null, "Internal error: " + e)));
+            } finally {
+                active.decrementAndGet();
+                engine.getMetrics().activeSessions.decrement();
+            }
+        }
+
+        public int getId() { return id; }
+
+        /**
+         * Returns false if the session's key buffer is full and the key was dropped
+         */
+        public boolean press(int key) {
+            boolean pressed = keys.offer(key);
+            LockSupport.unpark(thread);
+            return pressed;
+        }
+
+        /**
+         * Returns the next pressed key, or 0, without blocking. With
+         * `setParkWhenIdle`, a program that keeps finding no key is taken to
+         * be waiting for input, so after a few empty polls the session parks
+         * until a key arrives or a timeout passes, backing off the longer it
+         * stays idle
+         */
+        public int poll() {
+            int key = keys.poll();
+            if (key == 0 && parkWhenIdle && ++ emptyPolls > SPINS) {
+                LockSupport.parkNanos(this, parkNanos);
+                if (Thread.interrupted()) throw new CasioBasicError("Break: session was cancelled");
+                parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+                key = keys.poll();
+            }
+            if (key == 0) return 0;
+            emptyPolls = 0;
+            parkNanos = MIN_PARK_NANOS;
+            return key;
+        }
+
+        public int[] takePending() { return keys.takePending(); }
+
+        /**
+         * The terminal output (ANSI escapes and all) drawn since the last call
+         */
+        public String takeOutput() {
+            synchronized (output) {
+                String out = output.toString(StandardCharsets.UTF_8);
+                output.reset();
+                return out;
+            }
+        }
+
+        public void cancel() {
+            budget.cancel();
+            thread.interrupt();
+        }
+
+        /**
+         * Stops the program at its next loop iteration and returns its
+         * state, along with any keys it hadn't read yet. Returns null if the
+         * program finished (or failed) first, or didn't reach a loop
+         * iteration within `timeoutMillis`, e.g. as it waits in `Receive(`.
+         * The program then carries on as if nothing happened
+         */
+        public byte[] suspend(long timeoutMillis) throws InterruptedException {
+            env.requestSuspend();
+            LockSupport.unpark(thread);
+            thread.join(timeoutMillis);
+            if (thread.isAlive()) {
+                if (env.withdrawSuspend()) return null;
+                // It took the request just as the time ran out and is unwinding
+                thread.join();
+            }
+            return env.isSuspended() ? Snapshot.capture(program, env) : null;
+        }
+
+        public boolean isDone() { return result != null; }
+
+        /**
+         * Waits for the program to finish and returns its result
+         */
+        public Engine.RunResult join() throws InterruptedException {
+            thread.join();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A suspended run's whole state as a byte array, to be resumed later, on
+ * another worker, or several times over to try different keys from the
+ * same point.
+ *
+ * Runs are only suspended at a loop's back edge (see
+ * `Environment.requestSuspend()`), so the position is just the path of
+ * statement indexes and loop phases from the program down to that loop,
+ * which each node writes as the run unwinds and reads back as it resumes.
+ * A snapshot only resumes the program it was taken from
+ */
+public class Snapshot {
+    // "CBSN"
+    static final int MAGIC = 0x4342534E;
+    static final int VERSION = 1;
+
+    private Snapshot() {}
+
+    public static byte[] capture(Engine.CompileResult program, Environment env) {
+        if (!env.isSuspended()) throw new IllegalStateException("The run isn't suspended");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(fingerprint(program));
+            env.save(out);
+        } catch (IOException e) { throw new IllegalStateException(e); }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Loads a snapshot into an environment. Running the program in it then
+     * carries on from where the snapshot was taken
+     */
+    public static void restore(Engine.CompileResult program, byte[] snapshot, Environment env) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) throw new IllegalArgumentException("Not a snapshot");
+            if (in.readInt() != fingerprint(program)) throw new IllegalArgumentException("The snapshot is of a different program");
+            env.load(in);
+        } catch (IOException e) { throw new IllegalArgumentException("Truncated snapshot", e); }
+    }
+
+    // Statement indexes only mean something in the same tree
+    private static int fingerprint(Engine.CompileResult program) { return program.getProgram().toString().hashCode(); }
+}
@@ -0,0 +1,102 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs one compiled program many times, each from its own starting values
+ * of A-Z, on a ForkJoinPool.
+ *
+ * Frames are rows of 26 doubles in one flat array, both the starting values
+ * going in and the final values coming out, so a sweep of thousands of
+ * frames is two arrays rather than thousands of objects. Every frame runs in
+ * its own environment and the program tree is only read, so frames share
+ * nothing and the pool can split them freely
+ */
+public class Sweep {
+    static final int VARS = 26;
+
+    private Engine engine;
+    private ForkJoinPool pool;
+
+    Sweep(Engine engine, int parallelism) {
+        this.engine = engine;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * The final variables of every frame, and the first error of each frame
+     * that failed
+     */
+    static class Result {
+        private double[] vars;
+        private Diagnostic[] errors;
+
+        Result(double[] vars, Diagnostic[] errors) {
+            this.vars = vars;
+            this.errors = errors;
+        }
+
+        public int getFrameCount() { return errors.length; }
+
+        /**
+         * Row `frame` holds A-Z at `frame * 26` onwards
+         */
+        public double[] getVars() { return vars; }
+
+        public double getVar(int frame, char varName) { return vars[frame * VARS + varName - 'A']; }
+
+        public Diagnostic getError(int frame) { return errors[frame]; }
+    }
+
+    public Result run(Engine.CompileResult compiled, double[] inits) {
+        if (inits.length % VARS != 0) throw new IllegalArgumentException("Frames must be 26 values each");
+        int frames = inits.length / VARS;
+        double[] vars = new double[inits.length];
+        Diagnostic[] errors = new Diagnostic[frames];
+        // A few tasks per worker, so a worker that drew slow frames can be helped out
+        int grain = Math.max(1, frames / (pool.getParallelism() * 8));
+        pool.invoke(new Frames(compiled, inits, vars, errors, 0, frames, grain));
+        return new Result(vars, errors);
+    }
+
+    public void close() { pool.shutdown(); }
+
+    private class Frames extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private Engine.CompileResult compiled;
+        private double[] inits;
+        private double[] vars;
+        private Diagnostic[] errors;
+        private int from;
+        private int to;
+        private int grain;
+
+        Frames(Engine.CompileResult compiled, double[] inits, double[] vars, Diagnostic[] errors, int from, int to, int grain) {
+            this.compiled = compiled;
+            this.inits = inits;
+            this.vars = vars;
+            this.errors = errors;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int frame = from; frame < to; frame++) runFrame(frame);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Frames(compiled, inits, vars, errors, from, mid, grain),
+                      new Frames(compiled, inits, vars, errors, mid, to, grain));
+        }
+
+        private void runFrame(int frame) {
+            Environment env = new Environment();
+            env.setVars(inits, frame * VARS);
+            Engine.RunResult result = engine.run(compiled, env);
+            env.copyVars(vars, frame * VARS);
+            if (!result.isOk()) errors[frame] = result.getDiagnostics().get(0);
+        }
+    }
+}
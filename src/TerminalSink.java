@@ -0,0 +1,30 @@
+import java.io.PrintStream;
+
+/**
+ * Draws display frames on an ANSI terminal. Each frame is turned into one
+ * string of cursor moves and characters and written in a single call
+ */
+public class TerminalSink implements DisplaySink {
+    private PrintStream out;
+    private StringBuilder frame = new StringBuilder();
+
+    TerminalSink(PrintStream out) { this.out = out; }
+
+    public void frame(char[] cells, int[] changed, int count) {
+        frame.setLength(0);
+        int next = -1;
+        for (int i = 0; i < count; i++) {
+            int index = changed[i];
+            // Only move the cursor when the cell isn't right after the previous one
+            if (index != next || index % Display.WIDTH == 0) {
+                frame.append("\033[").append(index / Display.WIDTH + 1).append(';').append(index % Display.WIDTH + 1).append('H');
+            }
+            frame.append(cells[index]);
+            next = index + 1;
+        }
+        // Park the cursor below the screen so other output doesn't land on it
+        frame.append("\033[").append(Display.HEIGHT + 1).append(";1H");
+        out.print(frame);
+        out.flush();
+    }
+}
@@ -8,6 +8,20 @@ public enum TokenType {
     GET_KEY,
 
     CLEAR_TEXT,
+
+    GRAPH,
+    VIEW_WINDOW,
+    DRAW_GRAPH,
+    CLR_GRAPH,
+    DISP_F_TBL,
+    DISP_R_TBL,
+
+    SEND,
+    RECEIVE,
+    SEND_38K,
+    RECEIVE_38K,
+    OPEN_COMPORT,
+    CLOSE_COMPORT,
     
     WHILE,
     WHILE_END,
@@ -21,6 +35,39 @@ public enum TokenType {
     THEN,
     ELSE,
     IF_END,
+
+    LBL,
+    GOTO,
+    JUMP,
+    ISZ,
+    DSZ,
+
+    PROG,
+    RETURN,
+    BREAK,
+    STOP,
+
+    LIST,
+    MAT,
+    SUM,
+    PROD,
+    DIM,
+    CLR_LIST,
+    CLR_MAT,
+
+    STR,
+    STR_JOIN,
+    STR_MID,
+    STR_LEFT,
+    STR_RIGHT,
+    STR_ROTATE,
+    STR_SHIFT,
+    STR_LEN,
+    STR_CMP,
+    STR_SRC,
+    STR_INV,
+    STR_UPR,
+    STR_LWR,
     
     L_THAN,
     G_THAN,
@@ -36,6 +83,10 @@ public enum TokenType {
     LPAREN,
     RPAREN,
     COMMA,
+    LBRACE,
+    RBRACE,
+    LBRACKET,
+    RBRACKET,
     
     NUM,
     TEXT,
@@ -0,0 +1,160 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the last events of a run, for working out afterwards how a program
+ * got where it failed: every statement as it starts, and every variable an
+ * assignment writes with its new value
+ *
+ * Events go into a ring of two longs each that is allocated once, so the
+ * oldest events are overwritten and recording one is a couple of array
+ * stores. Statements are numbered per program like for the Profiler, and
+ * each program gets its own range of numbers the first time it is entered.
+ * The ring is only turned into locations and code when it is dumped. A run
+ * without a tracer pays one null check per statement and assignment
+ */
+public class Tracer {
+    // "CBTR"
+    static final int MAGIC = 0x43425452;
+    static final int VERSION = 1;
+
+    // The kind of event, in the top byte of its first long
+    static final long STATEMENT = 1L << 56;
+    static final long ASSIGN = 2L << 56;
+    private static final long PAYLOAD = (1L << 56) - 1;
+
+    private IdentityHashMap<ProgramNode, Integer> bases = new IdentityHashMap<>();
+    private int base;
+    private int size;
+    private StatementNode[] statements = new StatementNode[64];
+
+    private long[] ring;
+    private int mask;
+    // Events recorded so far, including the ones overwritten since
+    private long count;
+
+    /**
+     * Keeps the last `capacity` events, rounded up to a power of two
+     */
+    Tracer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 28) throw new IllegalArgumentException("Capacity must be 1 to " + (1 << 28));
+        int events = Integer.highestOneBit(capacity);
+        if (events < capacity) events <<= 1;
+        ring = new long[events * 2];
+        mask = events - 1;
+    }
+
+    /**
+     * Switches to the numbers of a program that is starting, returning the
+     * ones to switch back to when it ends
+     */
+    int enterProgram(ProgramNode program, int statementCount) {
+        Integer programBase = bases.get(program);
+        if (programBase == null) {
+            programBase = size;
+            bases.put(program, programBase);
+            size += statementCount;
+            if (size > statements.length) statements = Arrays.copyOf(statements, Math.max(statements.length * 2, size));
+        }
+        int outer = base;
+        base = programBase;
+        return outer;
+    }
+
+    void exitProgram(int outer) { base = outer; }
+
+    void statement(StatementNode statement) {
+        int slot = base + statement.getId();
+        // Only the first time, a store of a reference on every event costs more than the check
+        if (statements[slot] == null) statements[slot] = statement;
+        // The second long is left as it was, statements have no value
+        ring[(int) (count++ & mask) << 1] = STATEMENT | slot;
+    }
+
+    void assign(char varName, double value) {
+        int at = (int) (count++ & mask) << 1;
+        ring[at] = ASSIGN | varName;
+        ring[at + 1] = Double.doubleToRawLongBits(value);
+    }
+
+    public long getCount() { return count; }
+
+    /**
+     * Writes the events still in the ring, oldest first, along with the
+     * location and code of each statement they mention. Call it from the
+     * thread running the program, or once the run is over
+     */
+    public void dump(Path path) throws IOException {
+        long end = count;
+        long start = Math.max(0, end - (mask + 1));
+        boolean[] seen = new boolean[size];
+        int slots = 0;
+        for (long i = start; i < end; i++) {
+            long event = ring[(int) (i & mask) << 1];
+            if ((event & ~PAYLOAD) != STATEMENT || seen[(int) (event & PAYLOAD)]) continue;
+            seen[(int) (event & PAYLOAD)] = true;
+            slots ++;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(end);
+            out.writeInt(slots);
+            for (int slot = 0; slot < size; slot++) {
+                if (!seen[slot]) continue;
+                out.writeInt(slot);
+                out.writeUTF(String.valueOf(statements[slot].getLoc()));
+                out.writeUTF(firstLine(statements[slot]));
+            }
+            out.writeInt((int) (end - start));
+            for (long i = start; i < end; i++) {
+                int at = (int) (i & mask) << 1;
+                out.writeLong(ring[at]);
+                out.writeLong(ring[at + 1]);
+            }
+        }
+    }
+
+    /**
+     * Prints the last `limit` events of a dump, one per line, oldest first
+     */
+    public static void print(InputStream dump, int limit, PrintStream out) throws IOException {
+        DataInputStream in = new DataInputStream(dump);
+        if (in.readInt() != MAGIC || in.readShort() != VERSION) throw new IllegalArgumentException("Not a trace");
+        long total = in.readLong();
+        int slots = in.readInt();
+        Map<Integer, String[]> code = new HashMap<>();
+        for (int i = 0; i < slots; i++) code.put(in.readInt(), new String[] { in.readUTF(), in.readUTF() });
+
+        int events = in.readInt();
+        out.println(events + " of " + total + " events");
+        for (int i = 0; i < events; i++) {
+            long event = in.readLong();
+            long value = in.readLong();
+            if (i < events - limit) continue;
+            if ((event & ~PAYLOAD) == STATEMENT) {
+                String[] statement = code.get((int) (event & PAYLOAD));
+                out.printf("%-24s %s%n", statement[0], statement[1]);
+            }
+            else out.printf("%-24s %c = %s%n", "", (char) (event & PAYLOAD), Decimal.format(Double.longBitsToDouble(value)));
+        }
+    }
+
+    private static String firstLine(StatementNode statement) {
+        String code = statement.toString();
+        if (code.indexOf('\n') >= 0) code = code.substring(0, code.indexOf('\n'));
+        if (code.length() > 60) code = code.substring(0, 57) + "...";
+        return code;
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.stream.IntStream;
+
+/**
+ * Element-wise arithmetic, Sum and Prod on the `double[]` storage behind
+ * Lists and Matrices.
+ *
+ * The loops are kept to the simple counted form the JIT turns into SIMD
+ * code, so they get vectorised without the incubator Vector API (which this
+ * tree can't require at build time). Arrays of PARALLEL_THRESHOLD elements
+ * or more are split into chunks that run on the common ForkJoin pool.
+ * Results are rounded to the calculator's precision in a second pass, see
+ * Decimal
+ */
+public class VectorOps {
+    static final int ADD = 0;
+    static final int SUBTRACT = 1;
+    static final int MULTIPLY = 2;
+    static final int DIVIDE = 3;
+
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+    private static final int CHUNK = 1 << 14;
+
+    /**
+     * a[i] op b[i] for every i. Both arrays must be the same length
+     */
+    public static double[] apply(int op, double[] a, double[] b) {
+        if (a.length != b.length) throw new CasioBasicError("Dimension ERROR: lists of length " + a.length + " and " + b.length);
+        if (op == DIVIDE) checkDivisors(b);
+        double[] out = new double[a.length];
+        if (a.length < PARALLEL_THRESHOLD) apply(op, a, b, out, 0, a.length);
+        else chunks(a.length).forEach(c -> apply(op, a, b, out, c * CHUNK, Math.min(a.length, (c + 1) * CHUNK)));
+        return out;
+    }
+
+    private static void apply(int op, double[] a, double[] b, double[] out, int from, int to) {
+        switch (op) {
+            case ADD:      for (int i = from; i < to; i++) out[i] = a[i] + b[i]; break;
+            case SUBTRACT: for (int i = from; i < to; i++) out[i] = a[i] - b[i]; break;
+            case MULTIPLY: for (int i = from; i < to; i++) out[i] = a[i] * b[i]; break;
+            case DIVIDE:   for (int i = from; i < to; i++) out[i] = a[i] / b[i]; break;
+        }
+        Decimal.round(out, from, to);
+    }
+
+    /**
+     * a[i] op b for every i, or b op a[i] if `scalarFirst`
+     */
+    public static double[] apply(int op, double[] a, double b, boolean scalarFirst) {
+        if (op == DIVIDE) {
+            if (scalarFirst) checkDivisors(a);
+            else if (b == 0) throw new CasioBasicError("Math ERROR: division by zero");
+        }
+        double[] out = new double[a.length];
+        if (a.length < PARALLEL_THRESHOLD) apply(op, a, b, scalarFirst, out, 0, a.length);
+        else chunks(a.length).forEach(c -> apply(op, a, b, scalarFirst, out, c * CHUNK, Math.min(a.length, (c + 1) * CHUNK)));
+        return out;
+    }
+
+    private static void apply(int op, double[] a, double b, boolean scalarFirst, double[] out, int from, int to) {
+        switch (op) {
+            case ADD:      for (int i = from; i < to; i++) out[i] = a[i] + b; break;
+            case MULTIPLY: for (int i = from; i < to; i++) out[i] = a[i] * b; break;
+            case SUBTRACT:
+                if (scalarFirst) for (int i = from; i < to; i++) out[i] = b - a[i];
+                else             for (int i = from; i < to; i++) out[i] = a[i] - b;
+                break;
+            case DIVIDE:
+                if (scalarFirst) for (int i = from; i < to; i++) out[i] = b / a[i];
+                else             for (int i = from; i < to; i++) out[i] = a[i] / b;
+                break;
+        }
+        Decimal.round(out, from, to);
+    }
+
+    public static double[] negate(double[] a) { return apply(SUBTRACT, a, 0, true); }
+
+    public static double sum(double[] a) {
+        if (a.length < PARALLEL_THRESHOLD) return Decimal.round(sum(a, 0, a.length));
+        return Decimal.round(chunks(a.length).mapToDouble(c -> sum(a, c * CHUNK, Math.min(a.length, (c + 1) * CHUNK))).sum());
+    }
+
+    private static double sum(double[] a, int from, int to) {
+        // Separate accumulators break the dependency between additions, so
+        // four of them are in flight at once
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            s0 += a[i];
+            s1 += a[i + 1];
+            s2 += a[i + 2];
+            s3 += a[i + 3];
+        }
+        for (; i < to; i++) s0 += a[i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static double prod(double[] a) {
+        if (a.length < PARALLEL_THRESHOLD) return Decimal.round(prod(a, 0, a.length));
+        return Decimal.round(chunks(a.length).mapToDouble(c -> prod(a, c * CHUNK, Math.min(a.length, (c + 1) * CHUNK))).reduce(1, (x, y) -> x * y));
+    }
+
+    private static double prod(double[] a, int from, int to) {
+        double p0 = 1, p1 = 1, p2 = 1, p3 = 1;
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            p0 *= a[i];
+            p1 *= a[i + 1];
+            p2 *= a[i + 2];
+            p3 *= a[i + 3];
+        }
+        for (; i < to; i++) p0 *= a[i];
+        return (p0 * p1) * (p2 * p3);
+    }
+
+    private static void checkDivisors(double[] divisors) {
+        for (double divisor : divisors) {
+            if (divisor == 0) throw new CasioBasicError("Math ERROR: division by zero");
+        }
+    }
+
+    private static IntStream chunks(int length) {
+        return IntStream.range(0, (length + CHUNK - 1) / CHUNK).parallel();
+    }
+}